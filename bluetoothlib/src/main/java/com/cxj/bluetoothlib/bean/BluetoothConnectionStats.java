@@ -0,0 +1,85 @@
+package com.cxj.bluetoothlib.bean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/21
+ * @description 最近多次连接尝试的阶段耗时统计, 用于调整连接超时、MTU和缓存刷新策略
+ * 分位数只统计到达了对应阶段的连接尝试
+ */
+public class BluetoothConnectionStats {
+    private final List<BluetoothConnectionTimeline> timelines;
+
+    public BluetoothConnectionStats(List<BluetoothConnectionTimeline> timelines) {
+        this.timelines = Collections.unmodifiableList(new ArrayList<>(timelines));
+    }
+
+    /**
+     * 统计的连接尝试
+     *
+     * @return
+     */
+    public List<BluetoothConnectionTimeline> getTimelines() {
+        return timelines;
+    }
+
+    public int getCount() {
+        return timelines.size();
+    }
+
+    /**
+     * 指定结果的连接尝试次数
+     *
+     * @param outcome
+     * @return
+     */
+    public int getCount(BluetoothConnectionTimeline.Outcome outcome) {
+        int count = 0;
+        for (BluetoothConnectionTimeline timeline : timelines) {
+            if (timeline.getOutcome() == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 从请求连接到指定阶段耗时的分位数, 如getPercentile(READY, 90)为90%的连接在多少ms内就绪
+     *
+     * @param phase      阶段
+     * @param percentile 0~100
+     * @return 单位ms, 没有数据时返回-1
+     */
+    public long getPercentile(BluetoothConnectionTimeline.Phase phase, double percentile) {
+        return getPercentile(BluetoothConnectionTimeline.Phase.CONNECT_REQUESTED, phase, percentile);
+    }
+
+    /**
+     * 两个阶段之间耗时的分位数, 如getPercentile(CONNECTED, SERVICES_DISCOVERED, 50)为发现服务耗时的中位数
+     *
+     * @param from       开始阶段
+     * @param to         结束阶段
+     * @param percentile 0~100
+     * @return 单位ms, 没有数据时返回-1
+     */
+    public long getPercentile(BluetoothConnectionTimeline.Phase from, BluetoothConnectionTimeline.Phase to,
+                              double percentile) {
+        List<Long> durations = new ArrayList<>();
+        for (BluetoothConnectionTimeline timeline : timelines) {
+            long duration = timeline.getDuration(from, to);
+            if (duration >= 0) {
+                durations.add(duration);
+            }
+        }
+        if (durations.isEmpty()) {
+            return -1;
+        }
+        Collections.sort(durations);
+        double rank = Math.max(0, Math.min(100, percentile)) / 100 * durations.size();
+        int index = Math.max(0, Math.min(durations.size() - 1, (int) Math.ceil(rank) - 1));
+        return durations.get(index);
+    }
+}
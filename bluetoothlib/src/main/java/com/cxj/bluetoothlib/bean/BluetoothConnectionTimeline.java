@@ -0,0 +1,123 @@
+package com.cxj.bluetoothlib.bean;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/21
+ * @description 一次连接尝试中各阶段的时间, 从请求连接到就绪(或失败)
+ * 时间为System.nanoTime(), 未到达的阶段为0
+ */
+public class BluetoothConnectionTimeline {
+
+    /**
+     * 连接阶段, 按发生顺序排列
+     */
+    public enum Phase {
+        // 请求连接(包括重连), 之后可能在连接调度中排队
+        CONNECT_REQUESTED,
+        // 调用connectGatt/connect
+        CONNECT_ISSUED,
+        // onConnectionStateChange回调已连接
+        CONNECTED,
+        // 请求设置MTU
+        MTU_REQUESTED,
+        // onMtuChanged回调
+        MTU_CHANGED,
+        // 发现服务并找到配置的特征
+        SERVICES_DISCOVERED,
+        // 就绪流程中的通知全部开启
+        NOTIFICATIONS_ENABLED,
+        // 回调onReady
+        READY
+    }
+
+    /**
+     * 连接尝试的结果
+     */
+    public enum Outcome {
+        // 已就绪
+        READY,
+        // 连接超时
+        TIMEOUT,
+        // 就绪前断开或发现服务失败
+        FAILED,
+        // 就绪前被手动关闭
+        CANCELLED
+    }
+
+    private final String deviceMac;
+    // 设备的第几次连接尝试, 从1开始
+    private final long attempt;
+    private final long[] timestamps;
+    private final Outcome outcome;
+
+    public BluetoothConnectionTimeline(String deviceMac, long attempt, long[] timestamps, Outcome outcome) {
+        this.deviceMac = deviceMac;
+        this.attempt = attempt;
+        this.timestamps = timestamps;
+        this.outcome = outcome;
+    }
+
+    public String getDeviceMac() {
+        return deviceMac;
+    }
+
+    public long getAttempt() {
+        return attempt;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * 阶段的时间(System.nanoTime())
+     *
+     * @param phase
+     * @return 未到达时返回0
+     */
+    public long getTimestamp(Phase phase) {
+        return timestamps[phase.ordinal()];
+    }
+
+    public boolean hasReached(Phase phase) {
+        return timestamps[phase.ordinal()] != 0;
+    }
+
+    /**
+     * 两个阶段之间的时间, 单位ms
+     *
+     * @param from 开始阶段
+     * @param to   结束阶段
+     * @return 任一阶段未到达时返回-1
+     */
+    public long getDuration(Phase from, Phase to) {
+        if (!hasReached(from) || !hasReached(to)) {
+            return -1;
+        }
+        return (getTimestamp(to) - getTimestamp(from)) / 1000000;
+    }
+
+    /**
+     * 从请求连接到指定阶段的时间, 单位ms
+     *
+     * @param phase
+     * @return 未到达时返回-1
+     */
+    public long getElapsedTime(Phase phase) {
+        return getDuration(Phase.CONNECT_REQUESTED, phase);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("BluetoothConnectionTimeline{deviceMac='")
+                .append(deviceMac).append('\'')
+                .append(", attempt=").append(attempt)
+                .append(", outcome=").append(outcome);
+        for (Phase phase : Phase.values()) {
+            if (hasReached(phase)) {
+                builder.append(", ").append(phase).append('=').append(getElapsedTime(phase));
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.cxj.bluetoothlib.bean;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/12
+ * @description 一批通知数据, 所有数据连续保存在一个数组中, 通过下标获取每条数据的时间和位置
+ * 第i条数据为payload[getOffset(i), getOffset(i) + getLength(i))
+ * 数组长度可能大于实际数据, 以size()和偏移为准
+ */
+public class BluetoothDataBatch {
+    private final String deviceMac;
+    private final UUID characteristicUUID;
+    private final int size;
+    // 每条数据的接收时间(System.nanoTime())
+    private final long[] timestamps;
+    // 每条数据在payload中的起始位置, offsets[size]为总长度
+    private final int[] offsets;
+    private final byte[] payload;
+
+    public BluetoothDataBatch(String deviceMac, UUID characteristicUUID, int size,
+                              long[] timestamps, int[] offsets, byte[] payload) {
+        this.deviceMac = deviceMac;
+        this.characteristicUUID = characteristicUUID;
+        this.size = size;
+        this.timestamps = timestamps;
+        this.offsets = offsets;
+        this.payload = payload;
+    }
+
+    public String getDeviceMac() {
+        return deviceMac;
+    }
+
+    public UUID getCharacteristicUUID() {
+        return characteristicUUID;
+    }
+
+    /**
+     * 数据条数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 第index条数据的接收时间(System.nanoTime())
+     *
+     * @param index
+     * @return
+     */
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    /**
+     * 第index条数据在getPayload()中的起始位置
+     *
+     * @param index
+     * @return
+     */
+    public int getOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        checkIndex(index);
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * 所有数据的总字节数
+     *
+     * @return
+     */
+    public int getPayloadLength() {
+        return offsets[size];
+    }
+
+    /**
+     * 保存所有数据的数组, 不复制, 不要修改
+     *
+     * @return
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * 复制第index条数据
+     *
+     * @param index
+     * @return
+     */
+    public byte[] getData(int index) {
+        checkIndex(index);
+        return Arrays.copyOfRange(payload, offsets[index], offsets[index + 1]);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index:" + index + ", size:" + size);
+        }
+    }
+}
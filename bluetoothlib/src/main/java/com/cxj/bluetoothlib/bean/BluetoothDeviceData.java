@@ -1,5 +1,7 @@
 package com.cxj.bluetoothlib.bean;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -10,7 +12,11 @@ import java.util.UUID;
 public class BluetoothDeviceData {
     private String deviceMac;
     private UUID characteristicsUUID;
-    private byte[] data;
+    private volatile byte[] data;
+    // 数据保存在共享数组(如批量回调的批次数组)中时的位置, 需要byte[]时才复制出来
+    private byte[] source;
+    private int offset;
+    private int length;
 
     public BluetoothDeviceData(String deviceMac, UUID characteristicsUUID, byte[] data) {
         this.deviceMac = deviceMac;
@@ -18,6 +24,23 @@ public class BluetoothDeviceData {
         this.data = data;
     }
 
+    /**
+     * 数据为共享数组中的一段, 共享数组中这一段的内容不能再被修改
+     *
+     * @param deviceMac           设备mac
+     * @param characteristicsUUID 特征id
+     * @param source              共享数组
+     * @param offset              数据在共享数组中的起始位置
+     * @param length              数据长度
+     */
+    public BluetoothDeviceData(String deviceMac, UUID characteristicsUUID, byte[] source, int offset, int length) {
+        this.deviceMac = deviceMac;
+        this.characteristicsUUID = characteristicsUUID;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+    }
+
     public String getDeviceMac() {
         return deviceMac;
     }
@@ -34,11 +57,39 @@ public class BluetoothDeviceData {
         this.characteristicsUUID = characteristicsUUID;
     }
 
+    /**
+     * 获取数据
+     * 通知数据(onDataChanged)是库复制后持有的数组, 回调结束后也不会被修改, 可以直接保存, 不需要再复制
+     * 同一条数据的所有监听共用这个数组, 不要修改数组内容, 需要修改时先复制
+     * 开启批量回调时数据保存在批次的数组中, 第一次调用时才复制出来, 只读取数据时可以使用getReadOnlyData避免复制
+     *
+     * @return
+     */
     public byte[] getData() {
-        return data;
+        byte[] result = data;
+        if (null == result && null != source) {
+            // 并发调用时可能各复制一次, 内容相同
+            result = Arrays.copyOfRange(source, offset, offset + length);
+            data = result;
+        }
+        return result;
+    }
+
+    /**
+     * 获取数据的只读视图, 不复制数组, 适合传给不可信的代码
+     *
+     * @return 数据为null时返回null
+     */
+    public ByteBuffer getReadOnlyData() {
+        byte[] result = data;
+        if (null == result && null != source) {
+            return ByteBuffer.wrap(source, offset, length).slice().asReadOnlyBuffer();
+        }
+        return null == result ? null : ByteBuffer.wrap(result).asReadOnlyBuffer();
     }
 
     public void setData(byte[] data) {
         this.data = data;
+        this.source = null;
     }
 }
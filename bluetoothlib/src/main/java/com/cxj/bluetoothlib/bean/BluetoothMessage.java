@@ -1,35 +1,141 @@
 package com.cxj.bluetoothlib.bean;
 
 import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import com.cxj.bluetoothlib.core.BluetoothFuture;
+import com.cxj.bluetoothlib.listener.BluetoothMtuCallback;
+import com.cxj.bluetoothlib.listener.BluetoothRssiCallback;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * author : chenxiaojin
  * date : 2021/5/8 下午 03:47
- * description : 待发送蓝牙消息
+ * description : 待发送蓝牙消息, 所有GATT操作(读写特征、写描述符、设置MTU、读RSSI)都通过消息队列串行执行
+ * 超过MTU的写数据只保存一份, 发送时才按当前MTU从offset处截取分包, 不提前拆包
  */
 public class BluetoothMessage {
 
     private BluetoothGattCharacteristic characteristic;
 
+    private BluetoothGattDescriptor descriptor;
+
     private byte[] data;
 
     private MessageType messageType;
 
+    // 是否是流模式, 流模式下除最后一包外都使用WRITE_TYPE_NO_RESPONSE
+    private boolean isStreamMode;
+
+    // 已发送的字节数, 下一个分包从这里开始
+    private int offset;
+
+    // 整型参数, 如REQUEST_MTU时为请求的MTU
+    private int value;
+
+    // 操作超时时间, 小于等于0时使用BluetoothOptions.getOperationTimeout()
+    private long timeout;
+
+    // READ_RSSI的结果回调
+    private BluetoothRssiCallback rssiCallback;
+
+    // REQUEST_MTU的结果回调
+    private BluetoothMtuCallback mtuCallback;
+
+    // 发送优先级, 读写特征默认NORMAL, 其他操作默认CONTROL
+    private Priority priority;
+
+    // 异步结果, 通过writeDataAsync/readDataAsync发送时才有值
+    private BluetoothFuture<BluetoothDeviceData> future;
+
+    // 入队时间(System.nanoTime())
+    private long enqueueTime;
+
+    // 消息状态, 开始发送后不能再被队列丢弃; 丢弃、失败、出队只会发生一次
+    private final AtomicInteger state = new AtomicInteger(STATE_QUEUED);
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_SENDING = 1;
+    private static final int STATE_DROPPED = 2;
+    private static final int STATE_FAILED = 3;
+    private static final int STATE_REMOVED = 4;
+
 
     public enum MessageType {
-        READ, WRITE
+        READ, WRITE, WRITE_DESCRIPTOR, REQUEST_MTU, READ_RSSI
+    }
+
+    /**
+     * 发送优先级, 高优先级的消息可以在低优先级消息的分包之间插队发送
+     * 同一优先级内按入队顺序发送, 同一数据的分包始终保持顺序
+     */
+    public enum Priority {
+        // 控制命令, 如停止、中断等需要尽快生效的命令
+        CONTROL,
+        // 普通数据
+        NORMAL,
+        // 大数据量传输, 如固件升级
+        BULK
     }
 
     public BluetoothMessage(BluetoothGattCharacteristic characteristic, byte[] data, MessageType messageType) {
         this.characteristic = characteristic;
         this.data = data;
         this.messageType = messageType;
+        this.priority = isDataMessage() ? Priority.NORMAL : Priority.CONTROL;
+    }
+
+    /**
+     * 写描述符消息
+     *
+     * @param descriptor 描述符
+     * @param data       描述符的值
+     */
+    public BluetoothMessage(BluetoothGattDescriptor descriptor, byte[] data) {
+        this(descriptor.getCharacteristic(), data, MessageType.WRITE_DESCRIPTOR);
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * 设置MTU消息
+     *
+     * @param mtu 请求的MTU
+     */
+    public BluetoothMessage(int mtu) {
+        this(null, null, MessageType.REQUEST_MTU);
+        this.value = mtu;
+    }
+
+    /**
+     * 设置MTU消息
+     *
+     * @param mtu         请求的MTU
+     * @param mtuCallback 结果回调
+     */
+    public BluetoothMessage(int mtu, BluetoothMtuCallback mtuCallback) {
+        this(mtu);
+        this.mtuCallback = mtuCallback;
+    }
+
+    /**
+     * 读RSSI消息
+     *
+     * @param rssiCallback 结果回调
+     */
+    public BluetoothMessage(BluetoothRssiCallback rssiCallback) {
+        this(null, null, MessageType.READ_RSSI);
+        this.rssiCallback = rssiCallback;
     }
 
     public BluetoothGattCharacteristic getCharacteristic() {
         return characteristic;
     }
 
+    public BluetoothGattDescriptor getDescriptor() {
+        return descriptor;
+    }
+
     public byte[] getData() {
         return data;
     }
@@ -38,4 +144,237 @@ public class BluetoothMessage {
         return messageType;
     }
 
+    public boolean isStreamMode() {
+        return isStreamMode;
+    }
+
+    public void setStreamMode(boolean isStreamMode) {
+        this.isStreamMode = isStreamMode;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public BluetoothFuture<BluetoothDeviceData> getFuture() {
+        return future;
+    }
+
+    public void setFuture(BluetoothFuture<BluetoothDeviceData> future) {
+        this.future = future;
+    }
+
+    /**
+     * 是否已结束(异步结果被取消或已失败, 或发送中的分包失败), 结束后剩余的数据不再发送
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        return state.get() == STATE_FAILED || (null != future && future.isDone());
+    }
+
+    public long getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    public void setEnqueueTime(long enqueueTime) {
+        this.enqueueTime = enqueueTime;
+    }
+
+    /**
+     * 数据长度
+     *
+     * @return
+     */
+    public int getLength() {
+        return null == data ? 0 : data.length;
+    }
+
+    /**
+     * 标记为开始发送
+     *
+     * @return 消息已被队列丢弃时返回false
+     */
+    public boolean markSending() {
+        return state.compareAndSet(STATE_QUEUED, STATE_SENDING) || state.get() == STATE_SENDING;
+    }
+
+    /**
+     * 标记为已丢弃, 只有还未开始发送的消息可以丢弃
+     *
+     * @return 是否丢弃成功
+     */
+    public boolean markDropped() {
+        return state.compareAndSet(STATE_QUEUED, STATE_DROPPED);
+    }
+
+    /**
+     * 标记为发送失败, 只有已开始发送的消息可以标记
+     *
+     * @return 是否标记成功, 已标记过时返回false
+     */
+    public boolean markFailed() {
+        return state.compareAndSet(STATE_SENDING, STATE_FAILED);
+    }
+
+    /**
+     * 标记为已出队, 只有等待发送或发送中的消息可以标记
+     *
+     * @return 是否标记成功, 已被丢弃、失败或已出队时返回false
+     */
+    public boolean markRemoved() {
+        while (true) {
+            int current = state.get();
+            if (current != STATE_QUEUED && current != STATE_SENDING) {
+                return false;
+            }
+            if (state.compareAndSet(current, STATE_REMOVED)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 是否还在队列中等待发送(未开始发送且未被丢弃)
+     *
+     * @return
+     */
+    public boolean isQueued() {
+        return state.get() == STATE_QUEUED;
+    }
+
+    public boolean isDropped() {
+        return state.get() == STATE_DROPPED;
+    }
+
+    public boolean isFailed() {
+        return state.get() == STATE_FAILED;
+    }
+
+    /**
+     * 是否还有未发送的数据
+     *
+     * @return
+     */
+    public boolean hasRemaining() {
+        return null != data && offset < data.length;
+    }
+
+    /**
+     * 下一个分包是否是最后一包
+     *
+     * @param maxDataLen 单包最大长度
+     * @return
+     */
+    public boolean isLastFragment(int maxDataLen) {
+        return null == data || data.length - offset <= maxDataLen;
+    }
+
+    /**
+     * 获取下一个分包, 数据不需要拆包时直接返回原数据
+     *
+     * @param maxDataLen 单包最大长度
+     * @return
+     */
+    public byte[] nextFragment(int maxDataLen) {
+        return nextFragment(maxDataLen, null);
+    }
+
+    /**
+     * 获取下一个分包, 长度刚好等于buffer长度的分包复制到buffer中, 避免每个分包分配一次数组
+     * 只有最后一个不足单包长度的分包需要分配新数组, 数据不需要拆包时直接返回原数据
+     *
+     * @param maxDataLen 单包最大长度
+     * @param buffer     复用的分包缓冲, 可以为null
+     * @return
+     */
+    public byte[] nextFragment(int maxDataLen, byte[] buffer) {
+        if (null == data || (offset == 0 && data.length <= maxDataLen)) {
+            return data;
+        }
+        int length = Math.min(data.length - offset, maxDataLen);
+        if (null != buffer && buffer.length == length) {
+            System.arraycopy(data, offset, buffer, 0, length);
+            return buffer;
+        }
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    /**
+     * 分包下发前移动发送位置, 避免下发后回调先于移动位置到达
+     *
+     * @param length 分包长度
+     */
+    public void advance(int length) {
+        offset += length;
+    }
+
+    /**
+     * 分包下发失败时回退发送位置
+     *
+     * @param length 分包长度
+     */
+    public void rollback(int length) {
+        offset -= length;
+    }
+
+    /**
+     * 下一个分包的写类型
+     *
+     * @param maxDataLen 单包最大长度
+     * @return
+     */
+    public int getWriteType(int maxDataLen) {
+        return isNoResponseWrite(maxDataLen) ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public BluetoothRssiCallback getRssiCallback() {
+        return rssiCallback;
+    }
+
+    public BluetoothMtuCallback getMtuCallback() {
+        return mtuCallback;
+    }
+
+    /**
+     * 下一个分包是否是无需设备响应的写操作, 流模式下最后一包需要设备响应
+     *
+     * @param maxDataLen 单包最大长度
+     * @return
+     */
+    public boolean isNoResponseWrite(int maxDataLen) {
+        return messageType == MessageType.WRITE && isStreamMode && !isLastFragment(maxDataLen);
+    }
+
+    /**
+     * 是否是特征读写数据, 数据消息需要设备就绪后才能下发
+     * 其他(写描述符、设置MTU、读RSSI)为控制消息, 连接后即可下发
+     *
+     * @return
+     */
+    public boolean isDataMessage() {
+        return messageType == MessageType.READ || messageType == MessageType.WRITE;
+    }
+
 }
@@ -0,0 +1,321 @@
+package com.cxj.bluetoothlib.bean;
+
+import java.util.List;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/15
+ * @description 设备收发统计的快照, 统计从设备创建开始累计
+ * 两次快照通过since计算区间内的数据, 多个设备的快照通过merge合并
+ * 时间类统计都是微秒, 按2的幂分桶, 分位数返回所在桶的上限
+ */
+public class BluetoothMetricsSnapshot {
+    // 汇总多个设备时为null
+    private final String deviceMac;
+    private final int deviceCount;
+    // 统计区间, System.nanoTime()
+    private final long startTime;
+    private final long snapshotTime;
+    // 写入设备的字节数和分包数(GATT接口调用成功的写分包)
+    private final long bytesWritten;
+    private final long packetsWritten;
+    // 设备通知的字节数和包数(协议栈回调的原始通知, 未经过帧解码)
+    private final long bytesNotified;
+    private final long packetsNotified;
+    // 读写数据从入队到开始发送的等待时间
+    private final Histogram queueWait;
+    // 写分包从下发到onCharacteristicWrite回调的时间
+    private final Histogram writeLatency;
+    // 相邻两次通知的间隔
+    private final Histogram notifyInterval;
+    // 相邻两次通知间隔的变化量
+    private final Histogram notifyJitter;
+
+    public BluetoothMetricsSnapshot(String deviceMac, int deviceCount, long startTime, long snapshotTime,
+                                    long bytesWritten, long packetsWritten,
+                                    long bytesNotified, long packetsNotified,
+                                    Histogram queueWait, Histogram writeLatency,
+                                    Histogram notifyInterval, Histogram notifyJitter) {
+        this.deviceMac = deviceMac;
+        this.deviceCount = deviceCount;
+        this.startTime = startTime;
+        this.snapshotTime = snapshotTime;
+        this.bytesWritten = bytesWritten;
+        this.packetsWritten = packetsWritten;
+        this.bytesNotified = bytesNotified;
+        this.packetsNotified = packetsNotified;
+        this.queueWait = queueWait;
+        this.writeLatency = writeLatency;
+        this.notifyInterval = notifyInterval;
+        this.notifyJitter = notifyJitter;
+    }
+
+    /**
+     * 合并多个设备的快照, 用于统计所有设备的总吞吐
+     * 统计区间取最早的开始时间和最晚的快照时间
+     *
+     * @param snapshots 快照列表
+     * @return 列表为空时返回null
+     */
+    public static BluetoothMetricsSnapshot merge(List<BluetoothMetricsSnapshot> snapshots) {
+        if (null == snapshots || snapshots.isEmpty()) {
+            return null;
+        }
+        BluetoothMetricsSnapshot first = snapshots.get(0);
+        int deviceCount = 0;
+        long startTime = first.startTime;
+        long snapshotTime = first.snapshotTime;
+        long bytesWritten = 0;
+        long packetsWritten = 0;
+        long bytesNotified = 0;
+        long packetsNotified = 0;
+        Histogram queueWait = Histogram.EMPTY;
+        Histogram writeLatency = Histogram.EMPTY;
+        Histogram notifyInterval = Histogram.EMPTY;
+        Histogram notifyJitter = Histogram.EMPTY;
+        for (BluetoothMetricsSnapshot snapshot : snapshots) {
+            deviceCount += snapshot.deviceCount;
+            startTime = Math.min(startTime, snapshot.startTime);
+            snapshotTime = Math.max(snapshotTime, snapshot.snapshotTime);
+            bytesWritten += snapshot.bytesWritten;
+            packetsWritten += snapshot.packetsWritten;
+            bytesNotified += snapshot.bytesNotified;
+            packetsNotified += snapshot.packetsNotified;
+            queueWait = queueWait.plus(snapshot.queueWait);
+            writeLatency = writeLatency.plus(snapshot.writeLatency);
+            notifyInterval = notifyInterval.plus(snapshot.notifyInterval);
+            notifyJitter = notifyJitter.plus(snapshot.notifyJitter);
+        }
+        return new BluetoothMetricsSnapshot(null, deviceCount, startTime, snapshotTime,
+                bytesWritten, packetsWritten, bytesNotified, packetsNotified,
+                queueWait, writeLatency, notifyInterval, notifyJitter);
+    }
+
+    /**
+     * 计算从上一次快照到本次快照之间的统计, 用于计算最近一段时间的速率
+     * 最大值无法按区间计算, 保留本次快照的值
+     *
+     * @param previous 同一设备(或同一组设备)较早的快照
+     * @return
+     */
+    public BluetoothMetricsSnapshot since(BluetoothMetricsSnapshot previous) {
+        if (null == previous) {
+            return this;
+        }
+        return new BluetoothMetricsSnapshot(deviceMac, deviceCount, previous.snapshotTime, snapshotTime,
+                bytesWritten - previous.bytesWritten, packetsWritten - previous.packetsWritten,
+                bytesNotified - previous.bytesNotified, packetsNotified - previous.packetsNotified,
+                queueWait.minus(previous.queueWait), writeLatency.minus(previous.writeLatency),
+                notifyInterval.minus(previous.notifyInterval), notifyJitter.minus(previous.notifyJitter));
+    }
+
+    public String getDeviceMac() {
+        return deviceMac;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getSnapshotTime() {
+        return snapshotTime;
+    }
+
+    /**
+     * 统计区间长度, 单位ms
+     *
+     * @return
+     */
+    public long getElapsedTime() {
+        return (snapshotTime - startTime) / 1000000;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getPacketsWritten() {
+        return packetsWritten;
+    }
+
+    public long getBytesNotified() {
+        return bytesNotified;
+    }
+
+    public long getPacketsNotified() {
+        return packetsNotified;
+    }
+
+    public double getBytesWrittenPerSecond() {
+        return perSecond(bytesWritten);
+    }
+
+    public double getPacketsWrittenPerSecond() {
+        return perSecond(packetsWritten);
+    }
+
+    public double getBytesNotifiedPerSecond() {
+        return perSecond(bytesNotified);
+    }
+
+    public double getPacketsNotifiedPerSecond() {
+        return perSecond(packetsNotified);
+    }
+
+    public Histogram getQueueWait() {
+        return queueWait;
+    }
+
+    public Histogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public Histogram getNotifyInterval() {
+        return notifyInterval;
+    }
+
+    public Histogram getNotifyJitter() {
+        return notifyJitter;
+    }
+
+    private double perSecond(long count) {
+        long elapsed = snapshotTime - startTime;
+        return elapsed <= 0 ? 0 : count * 1000000000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "BluetoothMetricsSnapshot{" +
+                "deviceMac='" + deviceMac + '\'' +
+                ", deviceCount=" + deviceCount +
+                ", elapsedTime=" + getElapsedTime() +
+                ", bytesWritten=" + bytesWritten +
+                ", packetsWritten=" + packetsWritten +
+                ", bytesNotified=" + bytesNotified +
+                ", packetsNotified=" + packetsNotified +
+                ", queueWait=" + queueWait +
+                ", writeLatency=" + writeLatency +
+                ", notifyInterval=" + notifyInterval +
+                ", notifyJitter=" + notifyJitter +
+                '}';
+    }
+
+    /**
+     * 时间分布, 单位微秒
+     * 第0个桶为0, 第i个桶为[2^(i-1), 2^i), 最后一个桶包含所有更大的值
+     */
+    public static class Histogram {
+        public static final int BUCKET_COUNT = 32;
+        static final Histogram EMPTY = new Histogram(new long[BUCKET_COUNT], 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        public Histogram(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            this.max = max;
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            this.count = total;
+        }
+
+        /**
+         * 值所在的桶
+         *
+         * @param value 微秒
+         * @return
+         */
+        public static int bucketOf(long value) {
+            if (value <= 0) {
+                return 0;
+            }
+            return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        /**
+         * 桶的上限(不包含)
+         *
+         * @param bucket
+         * @return
+         */
+        public static long upperBoundOf(int bucket) {
+            return bucket == 0 ? 0 : 1L << bucket;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 分位数, 返回所在桶的上限, 不超过最大值
+         *
+         * @param percentile 0~100
+         * @return 没有数据时返回0
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+            target = Math.max(1, target);
+            long accumulated = 0;
+            for (int i = 0; i < counts.length; i++) {
+                accumulated += counts[i];
+                if (accumulated >= target) {
+                    return max > 0 ? Math.min(max, upperBoundOf(i)) : upperBoundOf(i);
+                }
+            }
+            return max;
+        }
+
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        Histogram plus(Histogram other) {
+            long[] result = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                result[i] = counts[i] + other.counts[i];
+            }
+            return new Histogram(result, sum + other.sum, Math.max(max, other.max));
+        }
+
+        Histogram minus(Histogram other) {
+            long[] result = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                result[i] = Math.max(0, counts[i] - other.counts[i]);
+            }
+            return new Histogram(result, Math.max(0, sum - other.sum), max);
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count +
+                    ", mean=" + (long) getMean() +
+                    ", p50=" + getPercentile(50) +
+                    ", p99=" + getPercentile(99) +
+                    ", max=" + max + '}';
+        }
+    }
+}
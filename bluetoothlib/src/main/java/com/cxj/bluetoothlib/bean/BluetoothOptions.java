@@ -4,6 +4,9 @@ import android.os.Parcel;
 import android.os.ParcelUuid;
 import android.os.Parcelable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -13,6 +16,8 @@ import java.util.UUID;
  */
 public class BluetoothOptions implements Parcelable {
     public static final int DEFAULT_MTU = 23;
+    // Android支持的最大MTU
+    public static final int MAX_MTU = 517;
 
     public void setAutoConnect(boolean autoConnect) {
         this.builder.setAutoConnect(autoConnect);
@@ -92,6 +97,15 @@ public class BluetoothOptions implements Parcelable {
         return builder.writeCharacteristicUUID.getUuid();
     }
 
+    /**
+     * 获取连接就绪前需要开启通知的特征(不包含notifyCharacteristicUUID)
+     *
+     * @return
+     */
+    public List<Subscription> getSubscriptions() {
+        return Collections.unmodifiableList(builder.subscriptions);
+    }
+
     /**
      * 是否需要设置MTU, 不等于默认值则需要设置
      *
@@ -139,6 +153,254 @@ public class BluetoothOptions implements Parcelable {
     }
 
 
+    /**
+     * 获取流模式下允许同时在途(已下发未回调)的无响应写包数量
+     *
+     * @return
+     */
+    public int getStreamCreditWindow() {
+        return builder.streamCreditWindow;
+    }
+
+    /**
+     * 获取单个GATT操作(读写特征、写描述符、设置MTU、读RSSI)等待回调的超时时间
+     *
+     * @return
+     */
+    public long getOperationTimeout() {
+        return builder.operationTimeout;
+    }
+
+    /**
+     * 获取待发送队列最大消息数, 0表示不限制
+     *
+     * @return
+     */
+    public int getMaxQueueMessages() {
+        return builder.maxQueueMessages;
+    }
+
+    /**
+     * 获取待发送队列最大字节数, 0表示不限制
+     *
+     * @return
+     */
+    public long getMaxQueueBytes() {
+        return builder.maxQueueBytes;
+    }
+
+    /**
+     * 获取待发送队列已满时的处理策略
+     *
+     * @return
+     */
+    public QueueFullPolicy getQueueFullPolicy() {
+        return QueueFullPolicy.values()[builder.queueFullPolicy];
+    }
+
+    /**
+     * 获取队列已满且策略为BLOCK时, 写数据线程的最长等待时间
+     *
+     * @return
+     */
+    public long getQueueBlockTimeout() {
+        return builder.queueBlockTimeout;
+    }
+
+    /**
+     * 获取设备事件(状态变化、读写结果、通知数据)的回调方式
+     *
+     * @return
+     */
+    public CallbackDispatchMode getCallbackDispatchMode() {
+        return CallbackDispatchMode.values()[builder.callbackDispatchMode];
+    }
+
+    /**
+     * 获取通知数据批量回调的最大条数, 0表示不限制
+     *
+     * @return
+     */
+    public int getNotificationBatchSize() {
+        return builder.notificationBatchSize;
+    }
+
+    /**
+     * 获取通知数据批量回调的最长等待时间(毫秒), 0表示不按时间回调
+     *
+     * @return
+     */
+    public long getNotificationBatchWindow() {
+        return builder.notificationBatchWindow;
+    }
+
+    /**
+     * 是否开启通知数据批量回调
+     *
+     * @return
+     */
+    public boolean isNotificationBatchEnabled() {
+        return builder.notificationBatchSize > 1 || builder.notificationBatchWindow > 0;
+    }
+
+    /**
+     * 获取连接优先级, BluetoothManager的连接排队方式为PRIORITY时, 优先级大的先连接
+     *
+     * @return
+     */
+    public int getConnectPriority() {
+        return builder.connectPriority;
+    }
+
+    /**
+     * 获取重连策略, 为null时使用autoConnect、retryConnectCount和retryInterval固定间隔重连
+     *
+     * @return
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return builder.reconnectPolicy;
+    }
+
+    /**
+     * 是否按发送负载自动调整连接优先级
+     *
+     * @return
+     */
+    public boolean isAdaptiveConnectionPriorityEnabled() {
+        return builder.connectionPriorityHighThreshold > 0;
+    }
+
+    /**
+     * 获取切换到高优先级的负载(待发送和在途的字节数), 0表示不自动调整
+     *
+     * @return
+     */
+    public long getConnectionPriorityHighThreshold() {
+        return builder.connectionPriorityHighThreshold;
+    }
+
+    /**
+     * 获取切回空闲优先级的负载, 负载持续低于该值getConnectionPriorityIdleTimeout()后切回
+     *
+     * @return
+     */
+    public long getConnectionPriorityLowThreshold() {
+        return builder.connectionPriorityLowThreshold;
+    }
+
+    /**
+     * 获取负载降低后切回空闲优先级前的等待时间(ms)
+     *
+     * @return
+     */
+    public long getConnectionPriorityIdleTimeout() {
+        return builder.connectionPriorityIdleTimeout;
+    }
+
+    /**
+     * 获取空闲时的连接优先级, BluetoothGatt.CONNECTION_PRIORITY_BALANCED或CONNECTION_PRIORITY_LOW_POWER
+     *
+     * @return
+     */
+    public int getIdleConnectionPriority() {
+        return builder.idleConnectionPriority;
+    }
+
+    /**
+     * 设备事件的回调方式
+     */
+    public enum CallbackDispatchMode {
+        // 直接在蓝牙回调线程(Binder线程)中回调, 监听耗时会阻塞该设备后续的通知
+        INLINE,
+        // 每个设备一个回调线程, 按事件顺序回调
+        SERIAL,
+        // 所有设备共用BluetoothManager的回调线程池, 同一设备固定在一个线程中, 保证设备内的顺序
+        SHARED
+    }
+
+    /**
+     * 连接数超过BluetoothManager.setMaxConcurrentConnects时的排队方式
+     */
+    public enum ConnectQueueMode {
+        // 按请求连接的顺序
+        FIFO,
+        // 按连接优先级从大到小, 相同优先级按请求顺序
+        PRIORITY
+    }
+
+    /**
+     * 待发送队列已满时的处理策略, 只对读写特征数据生效, 写描述符等控制消息不受队列容量限制
+     */
+    public enum QueueFullPolicy {
+        // 阻塞写数据的线程, 直到队列有空间或等待超时, 只能在后台线程写数据
+        // 在主线程写数据时不阻塞, 按REJECT处理; 主线程中可以使用writeDataAsync按回调控制发送节奏
+        BLOCK,
+        // 拒绝新数据, 通过onWriteError/onReadError回调通知
+        REJECT,
+        // 丢弃最早入队且还未开始发送的数据, 通过错误回调通知
+        DROP_OLDEST,
+        // 丢弃最晚入队且还未开始发送的数据, 为新数据腾出空间, 通过错误回调通知
+        // 适合只关心最新状态的场景, 队列中保留较早的数据和本次写入的数据
+        DROP_NEWEST
+    }
+
+    /**
+     * 连接就绪前需要开启通知(或indication)的特征
+     */
+    public static class Subscription implements Parcelable {
+        private final ParcelUuid serviceUUID;
+        private final ParcelUuid characteristicUUID;
+        private final boolean isIndication;
+
+        public Subscription(String serviceUUID, String characteristicUUID, boolean isIndication) {
+            this.serviceUUID = new ParcelUuid(UUID.fromString(serviceUUID));
+            this.characteristicUUID = new ParcelUuid(UUID.fromString(characteristicUUID));
+            this.isIndication = isIndication;
+        }
+
+        protected Subscription(Parcel in) {
+            serviceUUID = in.readParcelable(ParcelUuid.class.getClassLoader());
+            characteristicUUID = in.readParcelable(ParcelUuid.class.getClassLoader());
+            isIndication = in.readByte() != 0;
+        }
+
+        public UUID getServiceUUID() {
+            return serviceUUID.getUuid();
+        }
+
+        public UUID getCharacteristicUUID() {
+            return characteristicUUID.getUuid();
+        }
+
+        public boolean isIndication() {
+            return isIndication;
+        }
+
+        public static final Creator<Subscription> CREATOR = new Creator<Subscription>() {
+            @Override
+            public Subscription createFromParcel(Parcel in) {
+                return new Subscription(in);
+            }
+
+            @Override
+            public Subscription[] newArray(int size) {
+                return new Subscription[size];
+            }
+        };
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeParcelable(serviceUUID, flags);
+            dest.writeParcelable(characteristicUUID, flags);
+            dest.writeByte((byte) (isIndication ? 1 : 0));
+        }
+    }
+
     /**
      * BluetoothOptions构造器
      */
@@ -161,6 +423,39 @@ public class BluetoothOptions implements Parcelable {
         // 因此， mtu和realMtu不一定一样, 实际拆包的时候, 需要使用realMTU作为基准
         private int realMTU = 23;
         private int maxDataLen = realMTU - 3;
+        // 流模式(WRITE_TYPE_NO_RESPONSE)下允许同时在途的写包数量, 默认1个
+        // 多数协议栈在写回调前会拒绝下一个写操作, 确认设备和系统支持后再调大
+        private int streamCreditWindow = 1;
+        // 单个GATT操作等待回调的超时时间, 默认5秒, 超时后继续执行下一个操作
+        private long operationTimeout = 5 * 1000L;
+        // 待发送队列最大消息数, 默认0不限制
+        private int maxQueueMessages = 0;
+        // 待发送队列最大字节数, 默认0不限制
+        private long maxQueueBytes = 0;
+        // 待发送队列已满时的处理策略, 默认拒绝新数据
+        private int queueFullPolicy = QueueFullPolicy.REJECT.ordinal();
+        // 队列已满且策略为BLOCK时的最长等待时间, 默认5秒
+        private long queueBlockTimeout = 5 * 1000L;
+        // 设备事件的回调方式, 默认在蓝牙回调线程中直接回调
+        private int callbackDispatchMode = CallbackDispatchMode.INLINE.ordinal();
+        // 通知数据批量回调的最大条数, 默认0不限制
+        private int notificationBatchSize = 0;
+        // 通知数据批量回调的最长等待时间, 默认0不开启批量回调
+        private long notificationBatchWindow = 0;
+        // 就绪前需要开启通知的其他特征
+        private ArrayList<Subscription> subscriptions = new ArrayList<>();
+        // 连接优先级, 默认0
+        private int connectPriority = 0;
+        // 重连策略, 默认null使用固定间隔重连
+        private ReconnectPolicy reconnectPolicy;
+        // 切换到高连接优先级的负载(字节), 默认0不自动调整
+        private long connectionPriorityHighThreshold = 0;
+        // 切回空闲连接优先级的负载(字节)
+        private long connectionPriorityLowThreshold = 0;
+        // 负载降低后切回空闲连接优先级前的等待时间, 默认2秒
+        private long connectionPriorityIdleTimeout = 2 * 1000L;
+        // 空闲时的连接优先级, 默认BALANCED(0)
+        private int idleConnectionPriority = 0;
 
         // 写入操作时，服务的UUID
         private ParcelUuid serviceUUID;
@@ -183,6 +478,23 @@ public class BluetoothOptions implements Parcelable {
             mtu = in.readInt();
             realMTU = in.readInt();
             maxDataLen = in.readInt();
+            streamCreditWindow = in.readInt();
+            operationTimeout = in.readLong();
+            maxQueueMessages = in.readInt();
+            maxQueueBytes = in.readLong();
+            queueFullPolicy = in.readInt();
+            queueBlockTimeout = in.readLong();
+            callbackDispatchMode = in.readInt();
+            notificationBatchSize = in.readInt();
+            notificationBatchWindow = in.readLong();
+            subscriptions = in.createTypedArrayList(Subscription.CREATOR);
+            connectPriority = in.readInt();
+            Parcelable policy = in.readParcelable(ReconnectPolicy.class.getClassLoader());
+            reconnectPolicy = policy instanceof ReconnectPolicy ? (ReconnectPolicy) policy : null;
+            connectionPriorityHighThreshold = in.readLong();
+            connectionPriorityLowThreshold = in.readLong();
+            connectionPriorityIdleTimeout = in.readLong();
+            idleConnectionPriority = in.readInt();
             serviceUUID = in.readParcelable(ParcelUuid.class.getClassLoader());
             notifyCharacteristicUUID = in.readParcelable(ParcelUuid.class.getClassLoader());
             writeCharacteristicUUID = in.readParcelable(ParcelUuid.class.getClassLoader());
@@ -226,6 +538,143 @@ public class BluetoothOptions implements Parcelable {
             return this;
         }
 
+        /**
+         * 设置流模式下允许同时在途的写包数量, 最小为1, 默认1
+         * 协议栈在写回调前拒绝写操作时, 本次连接自动缩小到当时在途的数量
+         *
+         * @param streamCreditWindow
+         * @return
+         */
+        public Builder setStreamCreditWindow(int streamCreditWindow) {
+            this.streamCreditWindow = Math.max(1, streamCreditWindow);
+            return this;
+        }
+
+        public Builder setOperationTimeout(long operationTimeout) {
+            this.operationTimeout = operationTimeout;
+            return this;
+        }
+
+        /**
+         * 设置待发送队列容量, 0表示不限制
+         *
+         * @param maxQueueMessages 最大消息数(一次writeData/readData为一条消息)
+         * @param maxQueueBytes    最大字节数
+         * @return
+         */
+        public Builder setQueueCapacity(int maxQueueMessages, long maxQueueBytes) {
+            this.maxQueueMessages = Math.max(0, maxQueueMessages);
+            this.maxQueueBytes = Math.max(0, maxQueueBytes);
+            return this;
+        }
+
+        public Builder setQueueFullPolicy(QueueFullPolicy queueFullPolicy) {
+            this.queueFullPolicy = queueFullPolicy.ordinal();
+            return this;
+        }
+
+        public Builder setQueueBlockTimeout(long queueBlockTimeout) {
+            this.queueBlockTimeout = queueBlockTimeout;
+            return this;
+        }
+
+        public Builder setCallbackDispatchMode(CallbackDispatchMode callbackDispatchMode) {
+            this.callbackDispatchMode = callbackDispatchMode.ordinal();
+            return this;
+        }
+
+        /**
+         * 开启通知数据批量回调, 达到条数或等待时间任一条件时回调一批数据
+         * 开启后通知数据通过BluetoothDataBatchCallback回调, 不再逐条回调onDataChanged
+         * 只设置条数时, 数据不足一批会一直等待, 建议同时设置等待时间
+         *
+         * @param maxCount 每批最大条数, 0表示不限制
+         * @param maxDelay 每批最长等待时间(毫秒), 从这批的第一条数据开始计算, 0表示不按时间回调
+         * @return
+         */
+        public Builder setNotificationBatch(int maxCount, long maxDelay) {
+            this.notificationBatchSize = Math.max(0, maxCount);
+            this.notificationBatchWindow = Math.max(0, maxDelay);
+            return this;
+        }
+
+        /**
+         * 添加就绪前需要开启通知的特征, 连接后按添加顺序通过操作队列依次开启, 全部完成后才回调onReady
+         * notifyCharacteristicUUID总是会开启, 不需要重复添加
+         *
+         * @param serviceUUID        服务id
+         * @param characteristicUUID 特征id
+         * @return
+         */
+        public Builder addSubscription(String serviceUUID, String characteristicUUID) {
+            return addSubscription(serviceUUID, characteristicUUID, false);
+        }
+
+        /**
+         * 添加就绪前需要开启通知的特征
+         *
+         * @param serviceUUID        服务id
+         * @param characteristicUUID 特征id
+         * @param isIndication       true使用indication, false使用notification
+         * @return
+         * @see #addSubscription(String, String)
+         */
+        public Builder addSubscription(String serviceUUID, String characteristicUUID, boolean isIndication) {
+            subscriptions.add(new Subscription(serviceUUID, characteristicUUID, isIndication));
+            return this;
+        }
+
+        /**
+         * 设置连接优先级, 只在BluetoothManager的连接排队方式为PRIORITY时生效
+         *
+         * @param connectPriority 优先级, 大的先连接
+         * @return
+         */
+        public Builder setConnectPriority(int connectPriority) {
+            this.connectPriority = connectPriority;
+            return this;
+        }
+
+        /**
+         * 设置重连策略, 设置后连接断开、连接失败或超时都按策略重连, autoConnect、retryConnectCount和retryInterval不再生效
+         * 手动调用disconnect/close断开的不重连
+         *
+         * @param reconnectPolicy 重连策略, 如ExponentialBackoffPolicy.createDefault()
+         * @return
+         */
+        public Builder setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+            this.reconnectPolicy = reconnectPolicy;
+            return this;
+        }
+
+        /**
+         * 开启按发送负载自动调整连接优先级, 大量数据传输(如固件升级)时使用高优先级, 空闲时恢复低功耗
+         * 待发送和在途的字节数达到highThreshold时切换为CONNECTION_PRIORITY_HIGH,
+         * 持续低于lowThreshold达到idleTimeout后切回空闲优先级, 两个阈值之间不切换
+         *
+         * @param highThreshold 切换到高优先级的字节数, 0表示不自动调整
+         * @param lowThreshold  切回空闲优先级的字节数, 不大于highThreshold
+         * @param idleTimeout   负载降低后切回空闲优先级前的等待时间(ms)
+         * @return
+         */
+        public Builder setAdaptiveConnectionPriority(long highThreshold, long lowThreshold, long idleTimeout) {
+            this.connectionPriorityHighThreshold = Math.max(0, highThreshold);
+            this.connectionPriorityLowThreshold = Math.max(0, Math.min(lowThreshold, this.connectionPriorityHighThreshold));
+            this.connectionPriorityIdleTimeout = Math.max(0, idleTimeout);
+            return this;
+        }
+
+        /**
+         * 设置空闲时的连接优先级, 默认BluetoothGatt.CONNECTION_PRIORITY_BALANCED
+         *
+         * @param idleConnectionPriority BluetoothGatt.CONNECTION_PRIORITY_BALANCED或CONNECTION_PRIORITY_LOW_POWER
+         * @return
+         */
+        public Builder setIdleConnectionPriority(int idleConnectionPriority) {
+            this.idleConnectionPriority = idleConnectionPriority;
+            return this;
+        }
+
         public Builder setServiceUUID(String serviceUUID) {
             this.serviceUUID = new ParcelUuid(UUID.fromString(serviceUUID));
             return this;
@@ -286,6 +735,22 @@ public class BluetoothOptions implements Parcelable {
             dest.writeInt(mtu);
             dest.writeInt(realMTU);
             dest.writeInt(maxDataLen);
+            dest.writeInt(streamCreditWindow);
+            dest.writeLong(operationTimeout);
+            dest.writeInt(maxQueueMessages);
+            dest.writeLong(maxQueueBytes);
+            dest.writeInt(queueFullPolicy);
+            dest.writeLong(queueBlockTimeout);
+            dest.writeInt(callbackDispatchMode);
+            dest.writeInt(notificationBatchSize);
+            dest.writeLong(notificationBatchWindow);
+            dest.writeTypedList(subscriptions);
+            dest.writeInt(connectPriority);
+            dest.writeParcelable(reconnectPolicy instanceof Parcelable ? (Parcelable) reconnectPolicy : null, flags);
+            dest.writeLong(connectionPriorityHighThreshold);
+            dest.writeLong(connectionPriorityLowThreshold);
+            dest.writeLong(connectionPriorityIdleTimeout);
+            dest.writeInt(idleConnectionPriority);
             dest.writeParcelable(serviceUUID, flags);
             dest.writeParcelable(notifyCharacteristicUUID, flags);
             dest.writeParcelable(writeCharacteristicUUID, flags);
@@ -0,0 +1,161 @@
+package com.cxj.bluetoothlib.bean;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/18
+ * @description 指数退避重连策略
+ * 第n次重连等待 min(initialDelay * multiplier^(n-1), maxDelay), 再随机减少最多jitter比例, 避免多个设备同时重连
+ * 短暂断开时很快重连, 设备长时间不在时重连间隔逐渐变大, 超过maxAttempts次后放弃
+ * 可以按断开的GATT状态设置不同的初始等待时间和最大次数, 如超出范围(8)时快速重连, 设备关机(19)时慢一些
+ */
+public class ExponentialBackoffPolicy implements ReconnectPolicy, Parcelable {
+    private static final Random RANDOM = new Random();
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double multiplier;
+    private final double jitter;
+    private final int maxAttempts;
+    // 按GATT状态的规则
+    private int[] ruleStatuses = new int[0];
+    private long[] ruleInitialDelays = new long[0];
+    private int[] ruleMaxAttempts = new int[0];
+
+    /**
+     * 默认策略: 500ms开始每次翻倍, 最长30秒, 随机减少最多20%, 不限次数
+     * 超出范围(8)时100ms开始重连
+     *
+     * @return
+     */
+    public static ExponentialBackoffPolicy createDefault() {
+        return new ExponentialBackoffPolicy(500, 30 * 1000L, 2, 0.2, 0)
+                .setStatusRule(STATUS_CONN_TIMEOUT, 100, 0);
+    }
+
+    /**
+     * @param initialDelay 第一次重连的等待时间(ms)
+     * @param maxDelay     最长等待时间(ms)
+     * @param multiplier   每次重连等待时间的倍数, 最小为1
+     * @param jitter       随机减少等待时间的最大比例, 0~1
+     * @param maxAttempts  最多连续重连次数, 小于等于0时不限制
+     */
+    public ExponentialBackoffPolicy(long initialDelay, long maxDelay, double multiplier,
+                                    double jitter, int maxAttempts) {
+        this.initialDelay = Math.max(0, initialDelay);
+        this.maxDelay = Math.max(this.initialDelay, maxDelay);
+        this.multiplier = Math.max(1, multiplier);
+        this.jitter = Math.max(0, Math.min(1, jitter));
+        this.maxAttempts = maxAttempts;
+    }
+
+    protected ExponentialBackoffPolicy(Parcel in) {
+        initialDelay = in.readLong();
+        maxDelay = in.readLong();
+        multiplier = in.readDouble();
+        jitter = in.readDouble();
+        maxAttempts = in.readInt();
+        ruleStatuses = in.createIntArray();
+        ruleInitialDelays = in.createLongArray();
+        ruleMaxAttempts = in.createIntArray();
+    }
+
+    /**
+     * 设置指定GATT状态断开时的初始等待时间和最大次数, 倍数、最长等待时间和随机比例不变
+     *
+     * @param status       GATT状态, 见ReconnectPolicy.STATUS_*
+     * @param initialDelay 第一次重连的等待时间(ms), 小于0时该状态下不重连
+     * @param maxAttempts  最多连续重连次数, 小于等于0时不限制
+     * @return
+     */
+    public ExponentialBackoffPolicy setStatusRule(int status, long initialDelay, int maxAttempts) {
+        int index = indexOf(status);
+        if (index < 0) {
+            index = ruleStatuses.length;
+            ruleStatuses = Arrays.copyOf(ruleStatuses, index + 1);
+            ruleInitialDelays = Arrays.copyOf(ruleInitialDelays, index + 1);
+            ruleMaxAttempts = Arrays.copyOf(ruleMaxAttempts, index + 1);
+        }
+        ruleStatuses[index] = status;
+        ruleInitialDelays[index] = initialDelay;
+        ruleMaxAttempts[index] = maxAttempts;
+        return this;
+    }
+
+    /**
+     * 指定GATT状态断开时不重连
+     *
+     * @param status GATT状态
+     * @return
+     */
+    public ExponentialBackoffPolicy giveUpOn(int status) {
+        return setStatusRule(status, -1, 0);
+    }
+
+    @Override
+    public long getReconnectDelay(int status, int attempt) {
+        long baseDelay = initialDelay;
+        int attemptLimit = maxAttempts;
+        int index = indexOf(status);
+        if (index >= 0) {
+            baseDelay = ruleInitialDelays[index];
+            attemptLimit = ruleMaxAttempts[index];
+        }
+        if (baseDelay < 0 || (attemptLimit > 0 && attempt > attemptLimit)) {
+            return -1;
+        }
+        double delay = baseDelay * Math.pow(multiplier, Math.max(0, attempt - 1));
+        delay = Math.min(delay, maxDelay);
+        if (jitter > 0) {
+            double random;
+            synchronized (RANDOM) {
+                random = RANDOM.nextDouble();
+            }
+            delay -= delay * jitter * random;
+        }
+        return (long) delay;
+    }
+
+    private int indexOf(int status) {
+        for (int i = 0; i < ruleStatuses.length; i++) {
+            if (ruleStatuses[i] == status) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static final Creator<ExponentialBackoffPolicy> CREATOR = new Creator<ExponentialBackoffPolicy>() {
+        @Override
+        public ExponentialBackoffPolicy createFromParcel(Parcel in) {
+            return new ExponentialBackoffPolicy(in);
+        }
+
+        @Override
+        public ExponentialBackoffPolicy[] newArray(int size) {
+            return new ExponentialBackoffPolicy[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(initialDelay);
+        dest.writeLong(maxDelay);
+        dest.writeDouble(multiplier);
+        dest.writeDouble(jitter);
+        dest.writeInt(maxAttempts);
+        dest.writeIntArray(ruleStatuses);
+        dest.writeLongArray(ruleInitialDelays);
+        dest.writeIntArray(ruleMaxAttempts);
+    }
+}
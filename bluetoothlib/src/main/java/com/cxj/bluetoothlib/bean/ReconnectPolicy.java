@@ -0,0 +1,33 @@
+package com.cxj.bluetoothlib.bean;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/18
+ * @description 断开后的重连策略, 根据断开原因(GATT状态)和连续重连次数决定下一次重连的等待时间
+ * 通过BluetoothOptions.Builder.setReconnectPolicy设置, 设置后替代autoConnect、retryConnectCount和retryInterval的固定间隔重连
+ * 设备就绪(onReady)后连续重连次数清零
+ * 需要跨进程传递BluetoothOptions时, 策略需要同时实现Parcelable, 否则传递后为null
+ */
+public interface ReconnectPolicy {
+    // 连接超时(BluetoothOptions.getConnectTimeout()内没有连接成功), 不是GATT状态
+    int STATUS_CONNECT_TIMEOUT = -1;
+    // 系统蓝牙重新打开, 不是GATT状态
+    int STATUS_BLUETOOTH_ON = -2;
+    // 连接监督超时, 一般是设备超出范围或信号差导致短暂断开
+    int STATUS_CONN_TIMEOUT = 8;
+    // 设备主动断开, 如设备关机或设备端断开连接
+    int STATUS_CONN_TERMINATE_PEER_USER = 19;
+    // 本机断开
+    int STATUS_CONN_TERMINATE_LOCAL_HOST = 22;
+    // 连接失败, 常见于协议栈繁忙或设备不在范围内
+    int STATUS_GATT_ERROR = 133;
+
+    /**
+     * 获取下一次重连的等待时间
+     *
+     * @param status  导致断开的GATT状态, 或STATUS_CONNECT_TIMEOUT、STATUS_BLUETOOTH_ON
+     * @param attempt 本次是第几次连续重连, 从1开始
+     * @return 等待时间(ms), 小于0时放弃重连
+     */
+    long getReconnectDelay(int status, int attempt);
+}
@@ -0,0 +1,118 @@
+package com.cxj.bluetoothlib.capture;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 抓包日志文件格式, 所有数值为大端序
+ * 日志由目录下的多个分段文件组成, 文件名为capture-序号.blc, 按序号顺序读取
+ * 分段文件头: magic(4) + version(2) + 保留(2)
+ * 每条记录: 记录长度(4, 包含记录头) + 时间戳(8) + mac(6) + 特征id(16) + 数据
+ * 记录长度为0表示分段结束(映射文件未写入的部分全是0)
+ */
+final class CaptureLogFormat {
+    static final int MAGIC = 0x424C4350;
+    static final short VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 6 + 16;
+    static final int MAC_LENGTH = 6;
+
+    private static final String SEGMENT_PREFIX = "capture-";
+    private static final String SEGMENT_SUFFIX = ".blc";
+
+    private CaptureLogFormat() {
+    }
+
+    static File segmentFile(File directory, long index) {
+        return new File(directory, String.format(Locale.US, "%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * 分段文件的序号
+     *
+     * @param file
+     * @return 不是分段文件时返回-1
+     */
+    static long segmentIndex(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 目录下所有分段文件, 按序号排序
+     *
+     * @param directory
+     * @return
+     */
+    static File[] listSegments(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return segmentIndex(new File(dir, name)) >= 0;
+            }
+        });
+        if (null == files) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long index1 = segmentIndex(o1);
+                long index2 = segmentIndex(o2);
+                return index1 < index2 ? -1 : (index1 == index2 ? 0 : 1);
+            }
+        });
+        return files;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return 0;
+    }
+
+    /**
+     * 第index个字节的mac值, mac格式为AA:BB:CC:DD:EE:FF, 格式错误的部分按0处理
+     *
+     * @param mac
+     * @param index 0~5
+     * @return
+     */
+    static byte macByte(String mac, int index) {
+        int position = index * 3;
+        if (null == mac || mac.length() < position + 2) {
+            return 0;
+        }
+        return (byte) ((hexValue(mac.charAt(position)) << 4) | hexValue(mac.charAt(position + 1)));
+    }
+
+    static String macString(byte[] mac) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int i = 0; i < mac.length; i++) {
+            if (i > 0) {
+                builder.append(':');
+            }
+            builder.append(String.format(Locale.US, "%02X", mac[i] & 0xFF));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.cxj.bluetoothlib.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 读取CaptureLogWriter写入的抓包日志, 按分段序号和写入顺序依次返回记录
+ * 正在写入的日志也可以读取, 只返回读取时已完整写入的记录
+ * 不是线程安全的
+ */
+public class CaptureLogReader implements Closeable {
+    private final File[] segments;
+    private int segmentPosition = -1;
+    private MappedByteBuffer segment;
+
+    /**
+     * @param directory 日志目录
+     * @throws IOException 目录不存在
+     */
+    public CaptureLogReader(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("Capture directory not found:" + directory);
+        }
+        this.segments = CaptureLogFormat.listSegments(directory);
+    }
+
+    /**
+     * 读取下一条记录
+     *
+     * @return 没有更多记录时返回null
+     * @throws IOException 分段文件格式错误
+     */
+    public CaptureRecord read() throws IOException {
+        while (true) {
+            if (null == segment && !openNextSegment()) {
+                return null;
+            }
+            CaptureRecord record = readRecord(segment);
+            if (null != record) {
+                return record;
+            }
+            segment = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        segmentPosition = segments.length;
+    }
+
+    private boolean openNextSegment() throws IOException {
+        while (++segmentPosition < segments.length) {
+            File file = segments[segmentPosition];
+            RandomAccessFile randomAccessFile;
+            try {
+                randomAccessFile = new RandomAccessFile(file, "r");
+            } catch (IOException e) {
+                // 分段可能刚被写入端删除
+                continue;
+            }
+            try {
+                if (randomAccessFile.length() < CaptureLogFormat.SEGMENT_HEADER_SIZE) {
+                    continue;
+                }
+                MappedByteBuffer buffer = randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+                int magic = buffer.getInt();
+                short version = buffer.getShort();
+                buffer.getShort();
+                if (magic != CaptureLogFormat.MAGIC) {
+                    throw new IOException("Not a capture segment:" + file);
+                }
+                if (version != CaptureLogFormat.VERSION) {
+                    throw new IOException("Unsupported capture version " + version + ":" + file);
+                }
+                segment = buffer;
+                return true;
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取分段中的下一条记录
+     *
+     * @param buffer 分段映射内存
+     * @return 分段已读完时返回null
+     * @throws IOException 记录长度错误
+     */
+    private static CaptureRecord readRecord(MappedByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < CaptureLogFormat.RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int recordLength = buffer.getInt(buffer.position());
+        if (recordLength == 0) {
+            return null;
+        }
+        if (recordLength < CaptureLogFormat.RECORD_HEADER_SIZE || recordLength > buffer.remaining()) {
+            throw new IOException("Invalid capture record length:" + recordLength
+                    + ", position:" + buffer.position());
+        }
+        buffer.getInt();
+        long timestamp = buffer.getLong();
+        byte[] mac = new byte[CaptureLogFormat.MAC_LENGTH];
+        buffer.get(mac);
+        UUID characteristicUUID = new UUID(buffer.getLong(), buffer.getLong());
+        byte[] data = new byte[recordLength - CaptureLogFormat.RECORD_HEADER_SIZE];
+        buffer.get(data);
+        return new CaptureRecord(timestamp, CaptureLogFormat.macString(mac), characteristicUUID, data);
+    }
+}
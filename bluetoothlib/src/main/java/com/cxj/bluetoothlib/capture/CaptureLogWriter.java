@@ -0,0 +1,293 @@
+package com.cxj.bluetoothlib.capture;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 通知数据抓包日志, 追加写入内存映射的分段文件, 格式见CaptureLogFormat
+ * 写入只是复制到映射内存, 由系统负责落盘, 可以直接在蓝牙回调线程中调用
+ * 下一个分段文件提前在后台线程创建并映射, 切换分段时不需要等待文件创建
+ * 超过最大分段数时删除最早的分段, 每次创建都从新的分段开始写, 不会覆盖已有的日志
+ * 线程安全, 多个设备可以共用一个日志
+ */
+public class CaptureLogWriter implements Closeable {
+    private static final String TAG = "CaptureLogWriter";
+    // 默认分段大小16M
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    // 默认最多保留的分段数
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    // 时间戳基准, 记录的时间戳 = baseTime + (System.nanoTime() - baseNanoTime)
+    private final long baseTime = System.currentTimeMillis() * 1000000;
+    private final long baseNanoTime = System.nanoTime();
+    // 创建下一个分段文件的线程
+    private final ExecutorService segmentExecutor;
+
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    private Future<MappedByteBuffer> nextSegment;
+    private long recordCount;
+    private long droppedCount;
+    private boolean isClosed;
+
+    public CaptureLogWriter(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param directory   日志目录
+     * @param segmentSize 分段文件大小, 单条记录超过分段大小时丢弃
+     * @param maxSegments 最多保留的分段数, 小于等于0时不限制
+     * @throws IOException
+     */
+    public CaptureLogWriter(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= CaptureLogFormat.SEGMENT_HEADER_SIZE + CaptureLogFormat.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small:" + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create capture directory:" + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        File[] segments = CaptureLogFormat.listSegments(directory);
+        segmentIndex = segments.length == 0 ? 0
+                : CaptureLogFormat.segmentIndex(segments[segments.length - 1]) + 1;
+        segmentExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CaptureLogWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        segment = createSegment(segmentIndex);
+        deleteOldSegmentsInBackground(segmentIndex);
+        prepareNextSegment();
+    }
+
+    /**
+     * 追加一条通知数据, 时间戳为当前时间
+     *
+     * @param deviceMac          设备mac
+     * @param characteristicUUID 通知特征id
+     * @param data               通知数据
+     * @return 是否写入成功
+     */
+    public boolean append(String deviceMac, UUID characteristicUUID, byte[] data) {
+        return append(currentTimestamp(), deviceMac, characteristicUUID,
+                data, 0, null == data ? 0 : data.length);
+    }
+
+    /**
+     * 追加一条通知数据
+     *
+     * @param timestamp          纳秒级时间戳, 见currentTimestamp()
+     * @param deviceMac          设备mac
+     * @param characteristicUUID 通知特征id
+     * @param data               数据
+     * @param offset             数据起始位置
+     * @param length             数据长度
+     * @return 是否写入成功
+     */
+    public synchronized boolean append(long timestamp, String deviceMac, UUID characteristicUUID,
+                                       byte[] data, int offset, int length) {
+        if (isClosed) {
+            return false;
+        }
+        int recordLength = CaptureLogFormat.RECORD_HEADER_SIZE + length;
+        if (recordLength > segmentSize - CaptureLogFormat.SEGMENT_HEADER_SIZE) {
+            droppedCount++;
+            return false;
+        }
+        if (segment.remaining() < recordLength) {
+            try {
+                rollover();
+            } catch (IOException e) {
+                Log.e(TAG, "Create capture segment failed:" + e.getMessage(), e);
+                droppedCount++;
+                return false;
+            }
+        }
+        int position = segment.position();
+        // 先写记录内容, 最后写记录长度, 读取时长度不为0的记录一定是完整的
+        segment.position(position + 4);
+        segment.putLong(timestamp);
+        for (int i = 0; i < CaptureLogFormat.MAC_LENGTH; i++) {
+            segment.put(CaptureLogFormat.macByte(deviceMac, i));
+        }
+        segment.putLong(characteristicUUID.getMostSignificantBits());
+        segment.putLong(characteristicUUID.getLeastSignificantBits());
+        if (length > 0) {
+            segment.put(data, offset, length);
+        }
+        segment.putInt(position, recordLength);
+        recordCount++;
+        return true;
+    }
+
+    /**
+     * 当前时间的纳秒级时间戳, 单调递增
+     *
+     * @return
+     */
+    public long currentTimestamp() {
+        return baseTime + (System.nanoTime() - baseNanoTime);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * 因单条记录过大或创建分段失败丢弃的记录数
+     *
+     * @return
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 将当前分段写入磁盘, 系统也会自动落盘, 只在需要确保数据已落盘时调用
+     */
+    public synchronized void flush() {
+        if (!isClosed) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        segment.force();
+        segmentExecutor.shutdown();
+        // 已提前创建但未使用的分段删除
+        nextSegment.cancel(false);
+        File unusedSegment = CaptureLogFormat.segmentFile(directory, segmentIndex + 1);
+        try {
+            segmentExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (unusedSegment.exists() && !unusedSegment.delete()) {
+            Log.e(TAG, "Delete unused capture segment failed:" + unusedSegment);
+        }
+    }
+
+    /**
+     * 切换到提前创建的下一个分段
+     *
+     * @throws IOException
+     */
+    private void rollover() throws IOException {
+        MappedByteBuffer current = segment;
+        MappedByteBuffer next;
+        try {
+            next = nextSegment.get();
+        } catch (Exception e) {
+            // 后台创建失败时直接创建
+            next = createSegment(segmentIndex + 1);
+        }
+        segmentIndex++;
+        segment = next;
+        forceInBackground(current);
+        // 按已使用的分段删除, 提前创建但未使用的分段不计入
+        deleteOldSegmentsInBackground(segmentIndex);
+        prepareNextSegment();
+    }
+
+    /**
+     * 写满的分段在后台线程落盘, 不阻塞写入线程
+     *
+     * @param buffer 写满的分段
+     */
+    private void forceInBackground(final MappedByteBuffer buffer) {
+        segmentExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                buffer.force();
+            }
+        });
+    }
+
+    private void prepareNextSegment() {
+        final long index = segmentIndex + 1;
+        nextSegment = segmentExecutor.submit(new Callable<MappedByteBuffer>() {
+            @Override
+            public MappedByteBuffer call() throws Exception {
+                return createSegment(index);
+            }
+        });
+    }
+
+    /**
+     * 创建并映射分段文件, 写入文件头
+     *
+     * @param index 分段序号
+     * @return 写位置在文件头之后的映射内存
+     * @throws IOException
+     */
+    private MappedByteBuffer createSegment(long index) throws IOException {
+        File file = CaptureLogFormat.segmentFile(directory, index);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(segmentSize);
+            // 关闭文件后映射仍然有效
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(CaptureLogFormat.MAGIC);
+            buffer.putShort(CaptureLogFormat.VERSION);
+            buffer.putShort((short) 0);
+            return buffer;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 开始写入新分段后, 在后台线程删除超出数量的最早分段
+     *
+     * @param currentIndex 正在写入的分段序号
+     */
+    private void deleteOldSegmentsInBackground(final long currentIndex) {
+        if (maxSegments <= 0) {
+            return;
+        }
+        segmentExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File file : CaptureLogFormat.listSegments(directory)) {
+                    if (CaptureLogFormat.segmentIndex(file) <= currentIndex - maxSegments && !file.delete()) {
+                        Log.e(TAG, "Delete capture segment failed:" + file);
+                    }
+                }
+            }
+        });
+    }
+}
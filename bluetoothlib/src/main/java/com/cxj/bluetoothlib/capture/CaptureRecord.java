@@ -0,0 +1,48 @@
+package com.cxj.bluetoothlib.capture;
+
+import java.util.UUID;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 抓包日志中的一条通知数据
+ */
+public class CaptureRecord {
+    // 接收时间, 纳秒级时间戳(1970-01-01起), 同一个CaptureLogWriter写入的记录单调递增
+    private final long timestamp;
+    private final String deviceMac;
+    private final UUID characteristicUUID;
+    private final byte[] data;
+
+    public CaptureRecord(long timestamp, String deviceMac, UUID characteristicUUID, byte[] data) {
+        this.timestamp = timestamp;
+        this.deviceMac = deviceMac;
+        this.characteristicUUID = characteristicUUID;
+        this.data = data;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 接收时间, 单位ms
+     *
+     * @return
+     */
+    public long getTimeMillis() {
+        return timestamp / 1000000;
+    }
+
+    public String getDeviceMac() {
+        return deviceMac;
+    }
+
+    public UUID getCharacteristicUUID() {
+        return characteristicUUID;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
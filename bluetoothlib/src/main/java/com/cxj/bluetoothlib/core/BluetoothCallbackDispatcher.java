@@ -0,0 +1,104 @@
+package com.cxj.bluetoothlib.core;
+
+import android.util.Log;
+
+import com.cxj.bluetoothlib.bean.BluetoothOptions;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/11
+ * @description 设备事件回调分发, 按BluetoothOptions.CallbackDispatchMode选择回调线程
+ * 所有模式下同一设备的事件都按发生顺序回调
+ */
+class BluetoothCallbackDispatcher {
+    private static final String TAG = "BluetoothCallbackDispatcher";
+
+    private final BluetoothOptions.CallbackDispatchMode dispatchMode;
+    // SERIAL模式下的回调线程名
+    private final String threadName;
+    // SERIAL模式下的回调线程, 第一次分发时创建
+    private ExecutorService serialExecutor;
+
+    BluetoothCallbackDispatcher(BluetoothOptions.CallbackDispatchMode dispatchMode, String threadName) {
+        this.dispatchMode = null == dispatchMode ? BluetoothOptions.CallbackDispatchMode.INLINE : dispatchMode;
+        this.threadName = threadName;
+    }
+
+    /**
+     * 是否直接在调用线程中回调
+     * 异步回调时, 回调中使用的数据不能在回调前被修改(如characteristic.getValue())
+     *
+     * @return
+     */
+    boolean isInline() {
+        return dispatchMode == BluetoothOptions.CallbackDispatchMode.INLINE;
+    }
+
+    /**
+     * 分发回调, 回调异常不影响后续回调
+     *
+     * @param deviceMac 事件所属设备, SHARED模式下按设备选择共用线程
+     * @param task      回调任务
+     */
+    void dispatch(String deviceMac, final Runnable task) {
+        if (isInline()) {
+            runSafely(task);
+            return;
+        }
+        try {
+            getExecutor(deviceMac).execute(new Runnable() {
+                @Override
+                public void run() {
+                    runSafely(task);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程已关闭(设备销毁中), 直接回调
+            Log.e(TAG, "Dispatch callback rejected:" + e.getMessage());
+            runSafely(task);
+        }
+    }
+
+    /**
+     * 关闭SERIAL模式下的回调线程, 已提交的回调会继续执行完
+     * SHARED模式的线程由BluetoothManager管理
+     */
+    synchronized void shutdown() {
+        if (null != serialExecutor) {
+            serialExecutor.shutdown();
+            serialExecutor = null;
+        }
+    }
+
+    private ExecutorService getExecutor(String deviceMac) {
+        if (dispatchMode == BluetoothOptions.CallbackDispatchMode.SHARED) {
+            return BluetoothManager.getInstance().getCallbackExecutor(deviceMac);
+        }
+        synchronized (this) {
+            if (null == serialExecutor) {
+                serialExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return serialExecutor;
+        }
+    }
+
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            Log.e(TAG, "Callback error:" + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.cxj.bluetoothlib.core;
+
+import android.util.Log;
+
+import com.cxj.bluetoothlib.bean.BluetoothOptions;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/17
+ * @description 连接调度, 限制同时进行中的连接数
+ * 系统协议栈同一时间只处理一个连接请求, 同时发起大量connectGatt时后面的请求会一直排队直到超时,
+ * 超时后又重新发起, 导致大量设备连接时互相拖慢
+ * 超出并发数的连接请求在这里排队(先进先出或按BluetoothOptions的连接优先级), 轮到时才真正发起连接,
+ * 连接超时也从真正发起时开始计算
+ * 连接成功、失败、超时或关闭时释放名额, 启动下一个排队的连接
+ */
+class BluetoothConnectScheduler {
+    private static final String TAG = "BluetoothConnectScheduler";
+
+    // 正在连接的设备
+    private final Set<Object> activeOwners = new HashSet<>();
+    private PriorityQueue<Request> pendingRequests = new PriorityQueue<>(11, createComparator(
+            BluetoothOptions.ConnectQueueMode.FIFO));
+    // 最大同时连接数, 小于等于0时不限制
+    private int maxConcurrentConnects = 0;
+    private BluetoothOptions.ConnectQueueMode queueMode = BluetoothOptions.ConnectQueueMode.FIFO;
+    // 请求序号, 相同优先级时先请求的先连接
+    private long sequence = 0;
+
+    private static class Request {
+        final Object owner;
+        final int priority;
+        final long sequence;
+        final Runnable startTask;
+
+        Request(Object owner, int priority, long sequence, Runnable startTask) {
+            this.owner = owner;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.startTask = startTask;
+        }
+    }
+
+    private static Comparator<Request> createComparator(final BluetoothOptions.ConnectQueueMode queueMode) {
+        return new Comparator<Request>() {
+            @Override
+            public int compare(Request o1, Request o2) {
+                if (queueMode == BluetoothOptions.ConnectQueueMode.PRIORITY && o1.priority != o2.priority) {
+                    // 优先级大的先连接
+                    return o1.priority > o2.priority ? -1 : 1;
+                }
+                return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+            }
+        };
+    }
+
+    /**
+     * 设置最大同时连接数, 调大时立即启动排队中的连接
+     *
+     * @param maxConcurrentConnects 小于等于0时不限制
+     */
+    void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        synchronized (this) {
+            this.maxConcurrentConnects = maxConcurrentConnects;
+        }
+        startPending();
+    }
+
+    synchronized void setQueueMode(BluetoothOptions.ConnectQueueMode queueMode) {
+        if (this.queueMode == queueMode) {
+            return;
+        }
+        this.queueMode = queueMode;
+        PriorityQueue<Request> requests = new PriorityQueue<>(11, createComparator(queueMode));
+        requests.addAll(pendingRequests);
+        pendingRequests = requests;
+    }
+
+    /**
+     * 请求连接, 有空闲名额时在当前线程直接执行startTask, 否则排队
+     * 同一设备已经在连接或排队时不重复排队, 排队中的请求更新为新的startTask
+     *
+     * @param owner     发起连接的设备
+     * @param priority  连接优先级, PRIORITY模式下优先级大的先连接
+     * @param startTask 真正发起连接的任务
+     */
+    void request(Object owner, int priority, Runnable startTask) {
+        synchronized (this) {
+            if (activeOwners.contains(owner)) {
+                Log.e(TAG, "Device is connecting, ignore connect request.");
+                return;
+            }
+            long requestSequence = sequence++;
+            for (Request request : pendingRequests) {
+                if (request.owner == owner) {
+                    // 保留原来的排队位置
+                    requestSequence = request.sequence;
+                    pendingRequests.remove(request);
+                    break;
+                }
+            }
+            pendingRequests.add(new Request(owner, priority, requestSequence, startTask));
+            Log.d(TAG, "Connect request queued, pending:" + pendingRequests.size()
+                    + ", active:" + activeOwners.size());
+        }
+        startPending();
+    }
+
+    /**
+     * 连接已结束(成功、失败或超时), 释放名额, 没有占用名额时不处理
+     *
+     * @param owner 发起连接的设备
+     */
+    void release(Object owner) {
+        synchronized (this) {
+            if (!activeOwners.remove(owner)) {
+                return;
+            }
+        }
+        startPending();
+    }
+
+    /**
+     * 取消连接, 移除排队中的请求并释放名额
+     *
+     * @param owner 发起连接的设备
+     */
+    void cancel(Object owner) {
+        synchronized (this) {
+            for (Request request : pendingRequests) {
+                if (request.owner == owner) {
+                    pendingRequests.remove(request);
+                    break;
+                }
+            }
+        }
+        release(owner);
+    }
+
+    synchronized int getPendingCount() {
+        return pendingRequests.size();
+    }
+
+    synchronized int getActiveCount() {
+        return activeOwners.size();
+    }
+
+    synchronized void clear() {
+        pendingRequests.clear();
+        activeOwners.clear();
+    }
+
+    /**
+     * 在名额内启动排队中的连接, startTask在锁外执行
+     */
+    private void startPending() {
+        List<Request> startRequests = new ArrayList<>();
+        synchronized (this) {
+            while (!pendingRequests.isEmpty()
+                    && (maxConcurrentConnects <= 0 || activeOwners.size() < maxConcurrentConnects)) {
+                Request request = pendingRequests.poll();
+                activeOwners.add(request.owner);
+                startRequests.add(request);
+            }
+        }
+        for (Request request : startRequests) {
+            try {
+                request.startTask.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Start connect failed:" + e.getMessage(), e);
+                release(request.owner);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.cxj.bluetoothlib.core;
+
+import android.bluetooth.BluetoothGatt;
+import android.util.Log;
+
+import com.cxj.bluetoothlib.bean.BluetoothOptions;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/20
+ * @description 按发送负载自动调整连接优先级
+ * 待发送和在途的字节数达到高水位时切换为CONNECTION_PRIORITY_HIGH(连接间隔最短, 吞吐最大),
+ * 降到低水位以下并持续空闲一段时间后切回空闲优先级(BALANCED或LOW_POWER), 高低水位之间保持不变, 避免来回切换
+ * 只在发送线程中调整, 断开时的重置可能在回调线程, 状态使用volatile
+ */
+class BluetoothConnectionPriorityController {
+    private static final String TAG = "BluetoothConnectionPriority";
+
+    private final BluetoothOptions bluetoothOptions;
+    // 当前是否为高优先级
+    private volatile boolean isHighPriority;
+    // 最后一次负载高于低水位的时间(ms)
+    private volatile long lastBusyTime;
+
+    BluetoothConnectionPriorityController(BluetoothOptions bluetoothOptions) {
+        this.bluetoothOptions = bluetoothOptions;
+    }
+
+    boolean isEnabled() {
+        return bluetoothOptions.isAdaptiveConnectionPriorityEnabled();
+    }
+
+    /**
+     * 根据当前负载调整优先级
+     *
+     * @param gatt 当前连接
+     * @param load 待发送和在途的字节数
+     * @param now  当前时间(ms)
+     * @return 高优先级且负载已降到低水位以下时返回还需要空闲多久(ms)才能切回, 调用方在这之后再检查一次; 否则返回-1
+     */
+    long update(BluetoothGatt gatt, long load, long now) {
+        if (!isEnabled() || null == gatt) {
+            return -1;
+        }
+        if (load >= bluetoothOptions.getConnectionPriorityHighThreshold()) {
+            lastBusyTime = now;
+            if (!isHighPriority) {
+                isHighPriority = requestPriority(gatt, BluetoothGatt.CONNECTION_PRIORITY_HIGH, load);
+            }
+            return -1;
+        }
+        if (!isHighPriority) {
+            return -1;
+        }
+        if (load > bluetoothOptions.getConnectionPriorityLowThreshold()) {
+            lastBusyTime = now;
+            return -1;
+        }
+        long idleTime = now - lastBusyTime;
+        long idleTimeout = bluetoothOptions.getConnectionPriorityIdleTimeout();
+        if (idleTime < idleTimeout) {
+            return idleTimeout - idleTime;
+        }
+        if (requestPriority(gatt, bluetoothOptions.getIdleConnectionPriority(), load)) {
+            isHighPriority = false;
+        }
+        return -1;
+    }
+
+    /**
+     * 连接断开后系统恢复默认优先级
+     */
+    void reset() {
+        isHighPriority = false;
+        lastBusyTime = 0;
+    }
+
+    private boolean requestPriority(BluetoothGatt gatt, int priority, long load) {
+        boolean isSuccess = gatt.requestConnectionPriority(priority);
+        Log.d(TAG, "Request connection priority:" + priority + ", load:" + load + ", result:" + isSuccess);
+        return isSuccess;
+    }
+}
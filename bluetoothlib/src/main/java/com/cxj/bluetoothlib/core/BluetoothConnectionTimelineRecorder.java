@@ -0,0 +1,95 @@
+package com.cxj.bluetoothlib.core;
+
+import android.util.Log;
+
+import com.cxj.bluetoothlib.bean.BluetoothConnectionTimeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/21
+ * @description 记录设备每次连接尝试各阶段的时间, 连接尝试结束(就绪、超时、失败、关闭)后保存到历史中
+ * 阶段在主线程、协议栈回调线程和发送线程中记录, 每次连接只有几次, 直接加锁
+ * 每个阶段只记录第一次到达的时间, 同一次连接中重新发现服务等不会覆盖
+ */
+class BluetoothConnectionTimelineRecorder {
+    private static final String TAG = "BluetoothConnectionTimeline";
+    // 保存的历史连接尝试数
+    private static final int MAX_HISTORY = 16;
+
+    private final String deviceMac;
+    private final ArrayDeque<BluetoothConnectionTimeline> history = new ArrayDeque<>();
+    // 当前连接尝试的阶段时间, 没有进行中的连接尝试时为null
+    private long[] timestamps;
+    private long attemptCount;
+
+    BluetoothConnectionTimelineRecorder(String deviceMac) {
+        this.deviceMac = deviceMac;
+    }
+
+    /**
+     * 开始新的连接尝试, 未结束的上一次连接尝试记为失败
+     */
+    synchronized void start() {
+        if (null != timestamps) {
+            finish(BluetoothConnectionTimeline.Outcome.FAILED);
+        }
+        timestamps = new long[BluetoothConnectionTimeline.Phase.values().length];
+        attemptCount++;
+        timestamps[BluetoothConnectionTimeline.Phase.CONNECT_REQUESTED.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * 记录到达阶段, 没有进行中的连接尝试或已经到达过时忽略
+     *
+     * @param phase
+     */
+    synchronized void mark(BluetoothConnectionTimeline.Phase phase) {
+        if (null != timestamps && timestamps[phase.ordinal()] == 0) {
+            timestamps[phase.ordinal()] = System.nanoTime();
+        }
+    }
+
+    /**
+     * 结束当前连接尝试, 没有进行中的连接尝试时忽略
+     *
+     * @param outcome 结果
+     */
+    synchronized void finish(BluetoothConnectionTimeline.Outcome outcome) {
+        if (null == timestamps) {
+            return;
+        }
+        if (outcome == BluetoothConnectionTimeline.Outcome.READY) {
+            mark(BluetoothConnectionTimeline.Phase.READY);
+        }
+        BluetoothConnectionTimeline timeline =
+                new BluetoothConnectionTimeline(deviceMac, attemptCount, timestamps, outcome);
+        timestamps = null;
+        if (history.size() >= MAX_HISTORY) {
+            history.pollFirst();
+        }
+        history.addLast(timeline);
+        Log.d(TAG, timeline.toString());
+    }
+
+    /**
+     * 获取历史连接尝试, 按时间排序, 不包括进行中的连接尝试
+     *
+     * @return
+     */
+    synchronized List<BluetoothConnectionTimeline> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    /**
+     * 获取最后一次结束的连接尝试
+     *
+     * @return 没有时返回null
+     */
+    synchronized BluetoothConnectionTimeline getLast() {
+        return history.peekLast();
+    }
+}
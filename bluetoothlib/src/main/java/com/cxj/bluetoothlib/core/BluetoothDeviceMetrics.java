@@ -0,0 +1,159 @@
+package com.cxj.bluetoothlib.core;
+
+import com.cxj.bluetoothlib.bean.BluetoothMetricsSnapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/15
+ * @description 设备收发统计, 发送线程和协议栈回调线程直接记录
+ * 记录只做原子加和CAS, 不加锁也不创建对象, 可以在正式环境一直开启
+ * 通过snapshot获取快照, 快照内各项统计不保证是同一时刻的值
+ */
+class BluetoothDeviceMetrics {
+    // 记录写分包下发时间的环形数组大小, 需要是2的幂, 超过时不统计多出的分包的回调延迟
+    private static final int WRITE_RING_SIZE = 64;
+
+    private final String deviceMac;
+    private final long startTime = System.nanoTime();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong packetsWritten = new AtomicLong();
+    private final AtomicLong bytesNotified = new AtomicLong();
+    private final AtomicLong packetsNotified = new AtomicLong();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram writeLatency = new Histogram();
+    private final Histogram notifyInterval = new Histogram();
+    private final Histogram notifyJitter = new Histogram();
+
+    // 已下发未回调的写分包的下发时间, 写回调按下发顺序到达
+    // 发送线程写入tail, 回调线程读取head
+    private final long[] writeTimes = new long[WRITE_RING_SIZE];
+    private final AtomicLong writeHead = new AtomicLong();
+    private final AtomicLong writeTail = new AtomicLong();
+
+    // 上一次通知的时间和间隔, 只在协议栈回调线程中访问
+    private volatile long lastNotifyTime;
+    private volatile long lastNotifyInterval = -1;
+
+    BluetoothDeviceMetrics(String deviceMac) {
+        this.deviceMac = deviceMac;
+    }
+
+    /**
+     * 消息开始发送, 记录排队时间
+     *
+     * @param enqueueTime 入队时间(System.nanoTime())
+     * @param now         当前时间(System.nanoTime())
+     */
+    void onDequeued(long enqueueTime, long now) {
+        queueWait.record(now - enqueueTime);
+    }
+
+    /**
+     * 写分包已下发(GATT接口调用成功)
+     *
+     * @param length 分包长度
+     * @param now    下发时间(System.nanoTime())
+     */
+    void onWriteIssued(int length, long now) {
+        bytesWritten.addAndGet(length);
+        packetsWritten.incrementAndGet();
+        long tail = writeTail.get();
+        if (tail - writeHead.get() >= WRITE_RING_SIZE) {
+            return;
+        }
+        writeTimes[(int) (tail & (WRITE_RING_SIZE - 1))] = now;
+        writeTail.lazySet(tail + 1);
+    }
+
+    /**
+     * 写分包已回调, 按下发顺序对应最早的未回调分包
+     *
+     * @param now 回调时间(System.nanoTime())
+     */
+    void onWriteCallback(long now) {
+        long head = writeHead.get();
+        if (head >= writeTail.get()) {
+            return;
+        }
+        long issueTime = writeTimes[(int) (head & (WRITE_RING_SIZE - 1))];
+        writeHead.lazySet(head + 1);
+        writeLatency.record(now - issueTime);
+    }
+
+    /**
+     * 在途的写分包不会再回调(超时或断开), 丢弃记录的下发时间
+     */
+    void resetInFlightWrites() {
+        writeHead.set(writeTail.get());
+    }
+
+    /**
+     * 收到通知
+     *
+     * @param length 通知数据长度
+     * @param now    接收时间(System.nanoTime())
+     */
+    void onNotification(int length, long now) {
+        bytesNotified.addAndGet(length);
+        packetsNotified.incrementAndGet();
+        long lastTime = lastNotifyTime;
+        lastNotifyTime = now;
+        if (lastTime == 0) {
+            return;
+        }
+        long interval = now - lastTime;
+        notifyInterval.record(interval);
+        long lastInterval = lastNotifyInterval;
+        lastNotifyInterval = interval;
+        if (lastInterval >= 0) {
+            notifyJitter.record(Math.abs(interval - lastInterval));
+        }
+    }
+
+    /**
+     * 断开后重新开始计算通知间隔, 不把断开的时间算进去
+     */
+    void onDisconnected() {
+        lastNotifyTime = 0;
+        lastNotifyInterval = -1;
+        resetInFlightWrites();
+    }
+
+    BluetoothMetricsSnapshot snapshot() {
+        return new BluetoothMetricsSnapshot(deviceMac, 1, startTime, System.nanoTime(),
+                bytesWritten.get(), packetsWritten.get(), bytesNotified.get(), packetsNotified.get(),
+                queueWait.snapshot(), writeLatency.snapshot(),
+                notifyInterval.snapshot(), notifyJitter.snapshot());
+    }
+
+    /**
+     * 无锁的时间分布统计, 纳秒记录, 按微秒分桶
+     */
+    private static class Histogram {
+        private final AtomicLongArray counts =
+                new AtomicLongArray(BluetoothMetricsSnapshot.Histogram.BUCKET_COUNT);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts.incrementAndGet(BluetoothMetricsSnapshot.Histogram.bucketOf(micros));
+            sum.addAndGet(micros);
+            long currentMax = max.get();
+            while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+                currentMax = max.get();
+            }
+        }
+
+        BluetoothMetricsSnapshot.Histogram snapshot() {
+            long[] values = new long[counts.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = counts.get(i);
+            }
+            return new BluetoothMetricsSnapshot.Histogram(values, sum.get(), max.get());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.cxj.bluetoothlib.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/8
+ * @description 蓝牙异步操作结果
+ * 由于minSdkVersion为21无法使用CompletableFuture, 这里提供一个简单实现
+ * 可以通过get阻塞等待结果(不要在主线程调用), 也可以通过addListener异步获取结果
+ * 监听在完成操作的线程(蓝牙回调线程或发送线程)中回调, 不要在监听中执行耗时操作
+ */
+public class BluetoothFuture<T> implements Future<T> {
+
+    public interface Listener<T> {
+        /**
+         * 操作完成(成功、失败或取消)
+         *
+         * @param future
+         */
+        void onComplete(BluetoothFuture<T> future);
+    }
+
+    private T result;
+    private Throwable error;
+    private boolean isDone;
+    private boolean isCancelled;
+    private List<Listener<T>> listeners;
+
+    /**
+     * 设置成功结果
+     *
+     * @param result 结果
+     * @return 已经完成时返回false
+     */
+    boolean complete(T result) {
+        synchronized (this) {
+            if (isDone) {
+                return false;
+            }
+            this.result = result;
+            isDone = true;
+            notifyAll();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    /**
+     * 设置失败结果
+     *
+     * @param error 失败原因
+     * @return 已经完成时返回false
+     */
+    boolean fail(Throwable error) {
+        synchronized (this) {
+            if (isDone) {
+                return false;
+            }
+            this.error = error;
+            isDone = true;
+            notifyAll();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    /**
+     * 取消操作, 还未开始发送的数据不再发送, 已经开始发送的数据不再发送剩余的分包
+     *
+     * @param mayInterruptIfRunning 不使用
+     * @return
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (isDone) {
+                return false;
+            }
+            isCancelled = true;
+            error = new CancellationException("Bluetooth operation is cancelled.");
+            isDone = true;
+            notifyAll();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return isCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return isDone;
+    }
+
+    /**
+     * 是否已成功完成
+     *
+     * @return
+     */
+    public synchronized boolean isSuccess() {
+        return isDone && null == error;
+    }
+
+    /**
+     * 失败原因, 未完成或成功时返回null
+     *
+     * @return
+     */
+    public synchronized Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!isDone) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isDone) {
+            long waitTime = deadline - System.nanoTime();
+            if (waitTime <= 0) {
+                throw new TimeoutException("Wait bluetooth operation time out.");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, waitTime);
+        }
+        return getResult();
+    }
+
+    /**
+     * 添加完成监听, 已经完成时立即回调
+     *
+     * @param listener
+     * @return
+     */
+    public BluetoothFuture<T> addListener(Listener<T> listener) {
+        synchronized (this) {
+            if (!isDone) {
+                if (null == listeners) {
+                    listeners = new ArrayList<>(1);
+                }
+                listeners.add(listener);
+                return this;
+            }
+        }
+        listener.onComplete(this);
+        return this;
+    }
+
+    private T getResult() throws ExecutionException {
+        if (isCancelled) {
+            throw (CancellationException) error;
+        }
+        if (null != error) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+    private void notifyListeners() {
+        List<Listener<T>> currentListeners;
+        synchronized (this) {
+            currentListeners = listeners;
+            listeners = null;
+        }
+        if (null == currentListeners) {
+            return;
+        }
+        for (Listener<T> listener : currentListeners) {
+            listener.onComplete(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.cxj.bluetoothlib.core;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/19
+ * @description 记录每个设备上一次发现的服务, 判断是否需要刷新系统的GATT缓存
+ * 刷新缓存后需要重新完整发现服务, 每次连接增加1~3秒, 因此只在缓存可能失效时刷新:
+ * 发现服务失败、设备通知服务已变更(Service Changed)、发现的服务中缺少配置的服务或特征
+ * 设备对象重新创建后记录仍然有效, 由BluetoothManager持有, 每个连接过的设备一条记录, 不随设备销毁删除
+ */
+class BluetoothGattCacheTracker {
+    private static final String TAG = "BluetoothGattCacheTracker";
+
+    // 上一次发现的服务: 服务id -> 特征id
+    private final Map<String, Map<UUID, Set<UUID>>> discoveredServices = new ConcurrentHashMap<>();
+    // 需要刷新缓存的设备
+    private final Set<String> invalidDevices =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * 记录发现的服务, 与上一次发现的服务不同时输出日志
+     * 就绪流程每次都按本次发现的服务查找特征, 服务变化时不需要额外处理
+     *
+     * @param deviceMac 设备mac
+     * @param services  发现的服务
+     */
+    void onServicesDiscovered(String deviceMac, List<BluetoothGattService> services) {
+        Map<UUID, Set<UUID>> serviceMap = new HashMap<>();
+        for (BluetoothGattService service : services) {
+            Set<UUID> characteristics = new HashSet<>();
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                characteristics.add(characteristic.getUuid());
+            }
+            serviceMap.put(service.getUuid(), characteristics);
+        }
+        Map<UUID, Set<UUID>> lastServices = discoveredServices.put(deviceMac, serviceMap);
+        if (null != lastServices && !lastServices.equals(serviceMap)) {
+            Log.e(TAG, "Services of device " + deviceMac + " changed since last discovery.");
+        }
+    }
+
+    /**
+     * 标记设备的缓存已失效, 下一次连接时刷新
+     *
+     * @param deviceMac 设备mac
+     * @param reason    失效原因, 用于日志
+     */
+    void invalidate(String deviceMac, String reason) {
+        Log.e(TAG, "Gatt cache of device " + deviceMac + " is invalid:" + reason);
+        invalidDevices.add(deviceMac);
+    }
+
+    /**
+     * 设备的缓存是否需要刷新, 需要时清除标记, 调用方负责刷新
+     *
+     * @param deviceMac 设备mac
+     * @return
+     */
+    boolean consumeRefresh(String deviceMac) {
+        return invalidDevices.remove(deviceMac);
+    }
+
+    /**
+     * 获取设备上一次发现的服务
+     *
+     * @param deviceMac 设备mac
+     * @return 服务id -> 特征id, 没有发现过时返回空
+     */
+    Map<UUID, Set<UUID>> getDiscoveredServices(String deviceMac) {
+        Map<UUID, Set<UUID>> services = discoveredServices.get(deviceMac);
+        return null == services ? Collections.<UUID, Set<UUID>>emptyMap()
+                : Collections.unmodifiableMap(services);
+    }
+}
@@ -21,25 +21,41 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 
+import com.cxj.bluetoothlib.bean.BluetoothConnectionTimeline;
+import com.cxj.bluetoothlib.bean.BluetoothDataBatch;
 import com.cxj.bluetoothlib.bean.BluetoothDeviceData;
 import com.cxj.bluetoothlib.bean.BluetoothMessage;
+import com.cxj.bluetoothlib.bean.BluetoothMetricsSnapshot;
 import com.cxj.bluetoothlib.bean.BluetoothOptions;
+import com.cxj.bluetoothlib.bean.ReconnectPolicy;
+import com.cxj.bluetoothlib.capture.CaptureLogWriter;
+import com.cxj.bluetoothlib.frame.ByteRingBuffer;
+import com.cxj.bluetoothlib.frame.FrameDecoder;
+import com.cxj.bluetoothlib.listener.BluetoothDataBatchCallback;
 import com.cxj.bluetoothlib.listener.BluetoothDeviceDataCallback;
 import com.cxj.bluetoothlib.listener.BluetoothDeviceStateListener;
+import com.cxj.bluetoothlib.listener.BluetoothMtuCallback;
+import com.cxj.bluetoothlib.listener.BluetoothNotifyCallback;
+import com.cxj.bluetoothlib.listener.BluetoothResponseMatcher;
+import com.cxj.bluetoothlib.listener.BluetoothRssiCallback;
+import com.cxj.bluetoothlib.stream.FlowPublisher;
+import com.cxj.bluetoothlib.stream.OverflowStrategy;
 import com.cxj.bluetoothlib.util.BluetoothUtil;
 import com.cxj.bluetoothlib.util.ByteUtil;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Queue;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author chenxiaojin
@@ -51,7 +67,23 @@ public class BluetoothLEDevice {
     private static final String TAG = "BluetoothLEDevice";
     private static final int CMD_CONNECT = 1;
     private static final int CMD_SET_MTU = 2;
+    // 连接调度轮到该设备, 真正发起连接
+    private static final int CMD_START_CONNECT = 3;
+    // 按重连策略重连
+    private static final int CMD_RECONNECT = 4;
     private static final String DEFAULT_DESCRIPTOR_UUID = "00002902-0000-1000-8000-00805f9b34fb";
+    // Generic Attribute服务的Service Changed特征, 设备服务变更时通过indication通知
+    private static final UUID SERVICE_CHANGED_UUID = UUID.fromString("00002a05-0000-1000-8000-00805f9b34fb");
+    // 刷新缓存后等待一段时间再发现服务, 部分手机刷新后立即发现服务仍会拿到旧的缓存
+    private static final long REDISCOVER_DELAY = 300;
+    // 搜索中推迟重连的最短等待时间, 避免策略返回0时在主线程反复检查
+    private static final long MIN_SCANNING_RECONNECT_DELAY = 100;
+    // 下发失败的最大重试次数
+    private static final int MAX_SEND_RETRY_COUNT = 3;
+    // 下发失败后的重试间隔
+    private static final long SEND_RETRY_DELAY = 20;
+    // 默认的数据帧拼接缓冲区大小
+    private static final int DEFAULT_FRAME_BUFFER_SIZE = 4096;
 
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothOptions bluetoothOptions;
@@ -63,53 +95,173 @@ public class BluetoothLEDevice {
     private BluetoothGattCharacteristic writeCharacteristic;
 
     protected Context context;
-    private List<BluetoothDeviceStateListener> deviceStateListeners = new ArrayList<>();
-    private List<BluetoothDeviceDataCallback> deviceDataCallbacks = new ArrayList<>();
+    // 监听在主线程添加删除, 在蓝牙回调线程遍历, 使用写时复制的列表
+    private final BluetoothListenerRegistry<BluetoothDeviceStateListener> deviceStateListeners =
+            new BluetoothListenerRegistry<>(new BluetoothDeviceStateListener[0]);
+    private final BluetoothListenerRegistry<BluetoothDeviceDataCallback> deviceDataCallbacks =
+            new BluetoothListenerRegistry<>(new BluetoothDeviceDataCallback[0]);
+    private final BluetoothListenerRegistry<BluetoothDataBatchCallback> dataBatchCallbacks =
+            new BluetoothListenerRegistry<>(new BluetoothDataBatchCallback[0]);
     // 已经重试连接的次数
     private int retryConnectCount = 0;
     // 重连任务是否正在执行
     private boolean isRetryConnect = false;
+    // 按重连策略连续重连的次数, 就绪后清零
+    private int reconnectAttempt = 0;
+    // 本次按策略重连的等待时间, 搜索中推迟重连时按这个时间再等一次
+    private long reconnectDelay = 0;
+    // 本次连接是否已经刷新过GATT缓存, 每次连接最多刷新一次, 避免刷新后仍然失败时反复发现服务
+    private volatile boolean isCacheRefreshed;
+    // 连接后的第一次设置MTU完成(或超时)时开始发现服务, 之后重新协商MTU不再发现服务
+    private final AtomicBoolean isDiscoverAfterMtu = new AtomicBoolean(false);
+    // 本次连接协商后的MTU, 单包最大长度为MTU-3, 只保存一个值, 回调线程更新时发送线程不会读到不一致的MTU和长度
+    // 不写回BluetoothOptions, 配置可能被多个设备共用
+    private volatile int negotiatedMtu = BluetoothOptions.DEFAULT_MTU;
     // 设备连接超时检测
     private Handler connectTimeoutHandler = new Handler(Looper.getMainLooper());
     // 是否准备就绪, 准备就绪后才能发送消息
-    private boolean isReady;
+    private volatile boolean isReady;
     private int connectState = BluetoothProfile.STATE_DISCONNECTED;
 
-    // 待发送数据
-    private Queue<BluetoothMessage> dataQueue = new ConcurrentLinkedQueue<>();
-    private ExecutorService dataSenderService;
+    // 待发送的GATT操作, 所有操作通过该队列按优先级串行执行
+    private BluetoothMessageQueue dataQueue;
+    // 发送线程, 所有设备共用BluetoothManager的发送线程, 设备连接后才有值
+    private volatile ScheduledExecutorService dataSenderService;
+    // 共享发送线程中是否已有本设备待执行的发送任务, 避免重复提交
+    private final AtomicBoolean isSendScheduled = new AtomicBoolean(false);
     private boolean isCallClose = false;
-
-    // 发送数据
+    // 已下发但还未收到回调的操作(流模式的无响应写包除外), 同一时间只允许一个操作在执行
+    private volatile BluetoothMessage pendingMessage;
+    // 当前消息下发失败(GATT接口返回false)的次数
+    private int sendFailedCount = 0;
+    // 完整分包的复用缓冲, 长度为单包最大长度, 只在发送线程中写入
+    // writeCharacteristic调用时已将数据传给协议栈, 返回后就可以写入下一个分包
+    private volatile byte[] fragmentBuffer;
+    // 流模式下已下发但还未回调的无响应写包数量
+    private final AtomicInteger inFlightStreamCount = new AtomicInteger();
+    // 在途无响应写包所属的消息, 按下发顺序排列, 写回调按顺序到达, 回调失败时用于找到对应的消息
+    private final ConcurrentLinkedDeque<BluetoothMessage> inFlightStreamMessages = new ConcurrentLinkedDeque<>();
+    // 本次连接实际使用的在途窗口, 不超过BluetoothOptions.getStreamCreditWindow()
+    // 协议栈拒绝(忙)时缩小为当时在途的数量, 之后按写回调的节奏下发, 不再反复被拒绝
+    private volatile int streamWindow = 1;
+    // 操作序号, 每次下发和回调都会递增, 超时检测时序号未变化说明操作没有进展
+    private final AtomicLong operationSequence = new AtomicLong();
+    // 就绪流程序号, 重新发现服务或断开后之前的就绪流程失效
+    private final AtomicLong readySequence = new AtomicLong();
+    // 等待通知响应的请求
+    private final BluetoothRequestTracker requestTracker = new BluetoothRequestTracker();
+    // 按特征订阅的通知回调
+    private final BluetoothSubscriptionRouter subscriptionRouter = new BluetoothSubscriptionRouter();
+    // 接收所有特征通知的发布者回调, 只在发布者有订阅者时注册
+    private final BluetoothListenerRegistry<BluetoothNotifyCallback> publisherCallbacks =
+            new BluetoothListenerRegistry<>(new BluetoothNotifyCallback[0]);
+    // 有订阅者的发布者, 销毁设备时结束; 没有订阅者的发布者不在这里持有, 不再使用后可以被回收
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final BluetoothListenerRegistry<FlowPublisher<BluetoothDeviceData>> notificationPublishers =
+            new BluetoothListenerRegistry<FlowPublisher<BluetoothDeviceData>>(new FlowPublisher[0]);
+    // 设备是否已销毁, 销毁后订阅发布者会立即收到onComplete
+    private volatile boolean isDestroyed = false;
+    // 设备事件回调分发
+    private final BluetoothCallbackDispatcher callbackDispatcher;
+    // 通知数据批量收集, 未开启批量回调时为null
+    private final BluetoothNotificationBatcher notificationBatcher;
+    // 收发统计
+    private final BluetoothDeviceMetrics metrics;
+    // 通知数据抓包日志
+    private volatile CaptureLogWriter captureLog;
+    // 按发送负载调整连接优先级
+    private final BluetoothConnectionPriorityController priorityController;
+    private final AtomicBoolean isPriorityCheckScheduled = new AtomicBoolean(false);
+    // 连接各阶段耗时
+    private final BluetoothConnectionTimelineRecorder timelineRecorder;
+    // 数据帧解码器, 为null时每个通知直接回调
+    private volatile FrameDecoder frameDecoder;
+    private volatile int frameBufferSize = DEFAULT_FRAME_BUFFER_SIZE;
+    // 每个通知特征一个拼接缓冲区
+    private final Map<UUID, ByteRingBuffer> frameBuffers = new ConcurrentHashMap<>();
+
+    // 发送数据, 只在有新数据入队、上一条数据回调完成或设备就绪时触发, 不轮询
     private Runnable sendDataRunnable = new Runnable() {
         @Override
         public void run() {
-            // 设备已经准备好, 才能发数据
-            while (isConnected()) {
-                BluetoothMessage msg = dataQueue.peek();
-                // 有待发送的消息且当前处于可发消息的状态, 才下发数据并从队列删除数据
-                if (null != msg && isReady) {
-                    // 设备忙时不下发信息
-                    if (!isDeviceBusy()) {
-                        sendData(msg);
-                    }
-                    // 消息发完后暂停10ms, 立刻发下一条设备会处于忙的状态
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException e) {
-                        //  Log.e(TAG, "Thread failed. error:" + e.getMessage(), e);
-                    }
+            isSendScheduled.set(false);
+            // 设备已经连接且没有待回调的操作, 才能发数据
+            if (!isConnected()) {
+                return;
+            }
+            updateConnectionPriority();
+            if (null != pendingMessage) {
+                return;
+            }
+            // 未就绪时只发送控制消息(写描述符、设置MTU等)
+            BluetoothMessage msg = dataQueue.peek(isReady);
+            if (null == msg) {
+                return;
+            }
+            // 异步操作已取消或失败, 剩余数据不再发送
+            if (msg.isFinished()) {
+                dataQueue.poll();
+                scheduleSendData();
+                return;
+            }
+            // 每次发送只读取一次单包长度, 判断写类型和截取分包使用同一个值
+            int maxDataLen = getMaxDataLen();
+            if (msg.isNoResponseWrite(maxDataLen)) {
+                // 无响应写包受在途窗口限制
+                if (inFlightStreamCount.get() >= streamWindow) {
+                    return;
                 }
+            } else if (inFlightStreamCount.get() > 0) {
+                // 需要响应的操作要等前面的无响应写包全部回调后再发, 保证顺序
+                return;
+            }
+            // 消息刚好被队列丢弃(DROP_OLDEST), 重新取下一条
+            if (!msg.markSending()) {
+                scheduleSendData();
+                return;
+            }
+            sendData(msg, maxDataLen);
+        }
+    };
+
+    /**
+     * 负载降低后的空闲检查, 在发送线程中执行
+     */
+    private final Runnable priorityCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isPriorityCheckScheduled.set(false);
+            if (isConnected()) {
+                updateConnectionPriority();
             }
         }
     };
 
+    /**
+     * 根据待发送和在途的字节数调整连接优先级, 在发送线程中调用
+     */
+    private void updateConnectionPriority() {
+        if (!priorityController.isEnabled()) {
+            return;
+        }
+        int maxDataLen = getMaxDataLen();
+        long load = dataQueue.byteSize() + (long) inFlightStreamCount.get() * maxDataLen
+                + (null != pendingMessage ? maxDataLen : 0);
+        long recheckDelay = priorityController.update(bluetoothGatt, load, System.nanoTime() / 1000000);
+        if (recheckDelay < 0 || !isPriorityCheckScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledExecutorService senderService = getSenderService();
+        if (null == senderService) {
+            isPriorityCheckScheduled.set(false);
+            return;
+        }
+        try {
+            senderService.schedule(priorityCheckRunnable, recheckDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            isPriorityCheckScheduled.set(false);
+        }
+    }
 
     /**
      * 蓝牙开启状态变更广播
@@ -137,36 +289,375 @@ public class BluetoothLEDevice {
     /**
      * 下发消息到设备
      *
-     * @param message 消息
+     * @param message    消息
+     * @param maxDataLen 单包最大长度, 发送时才按当前MTU截取分包
+     */
+    private void sendData(BluetoothMessage message, int maxDataLen) {
+        boolean isStream = message.isNoResponseWrite(maxDataLen);
+        byte[] buffer = fragmentBuffer;
+        if (null == buffer || buffer.length != maxDataLen) {
+            buffer = new byte[maxDataLen];
+            fragmentBuffer = buffer;
+        }
+        byte[] fragment = message.nextFragment(maxDataLen, buffer);
+        // 先标记为等待回调, 避免回调先于标记到达
+        if (isStream) {
+            inFlightStreamMessages.offerLast(message);
+            inFlightStreamCount.incrementAndGet();
+        } else {
+            pendingMessage = message;
+        }
+        // 回调可能先于超时检测开始, 需要在下发前取序号和移动发送位置
+        long sequence = operationSequence.incrementAndGet();
+        int fragmentLen = null == fragment ? 0 : fragment.length;
+        boolean isFirstFragment = message.getOffset() == 0;
+        message.advance(fragmentLen);
+        boolean isSuccess = executeOperation(message, fragment, maxDataLen);
+
+        if (isSuccess) {
+            long now = System.nanoTime();
+            if (isFirstFragment && message.isDataMessage()) {
+                metrics.onDequeued(message.getEnqueueTime(), now);
+            }
+            if (message.getMessageType() == BluetoothMessage.MessageType.WRITE) {
+                metrics.onWriteIssued(fragmentLen, now);
+            }
+            // 整包数据发送完才从队列删除, 等待回调后再发下一条
+            sendFailedCount = 0;
+            dataQueue.commit(!message.hasRemaining());
+            startOperationTimeout(message, sequence);
+            if (isStream && inFlightStreamCount.get() < streamWindow) {
+                // 在途窗口未满时继续下发, 窗口已满时由写回调触发下一包
+                scheduleSendData();
+            }
+            return;
+        }
+
+        message.rollback(fragmentLen);
+        if (isStream) {
+            inFlightStreamMessages.removeLastOccurrence(message);
+            inFlightStreamCount.decrementAndGet();
+        } else {
+            pendingMessage = null;
+        }
+        // 本次没有下发, 恢复序号, 使在途写包的超时检测仍然有效
+        operationSequence.compareAndSet(sequence, sequence - 1);
+        int inFlightCount = inFlightStreamCount.get();
+        if (inFlightCount > 0) {
+            // 协议栈在收到上一个写回调前拒绝所有写操作(包括无响应写), 不是失败,
+            // 等待下一个写回调触发发送, 不计入重试次数
+            if (inFlightCount < streamWindow) {
+                Log.d(TAG, "Gatt is busy, limit stream window to " + inFlightCount);
+                streamWindow = inFlightCount;
+            }
+            return;
+        }
+        sendFailedCount++;
+        if (sendFailedCount < MAX_SEND_RETRY_COUNT) {
+            // 协议栈暂时不可用, 稍后重试当前消息
+            scheduleSendData(SEND_RETRY_DELAY);
+            return;
+        }
+
+        // 多次重试失败, 整条消息失败(已发送了一部分的消息也不再发送剩余分包), 继续发送后面的消息
+        sendFailedCount = 0;
+        dataQueue.poll();
+        String errorMessage = "GATT operation " + message.getMessageType() + " result is false.";
+        if (message.getOffset() > 0) {
+            errorMessage += " " + message.getOffset() + " of " + message.getLength() + " bytes were sent.";
+        }
+        notifyOperationError(message, BluetoothOperationException.REASON_REJECTED, errorMessage);
+        scheduleSendData();
+    }
+
+    /**
+     * 调用GATT接口执行消息对应的操作
+     *
+     * @param message    消息
+     * @param fragment   本次发送的数据
+     * @param maxDataLen 单包最大长度
+     * @return GATT接口是否调用成功
      */
-    private void sendData(BluetoothMessage message) {
+    private boolean executeOperation(BluetoothMessage message, byte[] fragment, int maxDataLen) {
         BluetoothGattCharacteristic characteristic = message.getCharacteristic();
-        characteristic.setValue(message.getData());
-        Log.d(TAG, "[BluetoothDevice] Send data:" + ByteUtil.bytesToHex(message.getData()));
-        if (message.getMessageType() == BluetoothMessage.MessageType.WRITE) {
-            boolean isSuccess = bluetoothGatt.writeCharacteristic(characteristic);
-            if (isSuccess) {
-                // 删除队列的数据
-                dataQueue.poll();
-            } else {
-                notifyDataWriteError(bluetoothOptions.getDeviceMac(),
-                        characteristic.getService().getUuid().toString(),
-                        characteristic.getUuid().toString(), "Write characteristic result is false.");
+        boolean isSuccess;
+        switch (message.getMessageType()) {
+            case WRITE:
+                characteristic.setValue(fragment);
+                characteristic.setWriteType(message.getWriteType(maxDataLen));
+                isSuccess = bluetoothGatt.writeCharacteristic(characteristic);
+                Log.d(TAG, "device mac is " + getDeviceMac() + " Write data result:" + isSuccess + ", data:" + ByteUtil.bytesToHex(fragment));
+                break;
+            case READ:
+                characteristic.setValue(fragment);
+                isSuccess = bluetoothGatt.readCharacteristic(characteristic);
+                Log.d(TAG, "device mac is " + getDeviceMac() + " Read data result:" + isSuccess);
+                break;
+            case WRITE_DESCRIPTOR:
+                BluetoothGattDescriptor descriptor = message.getDescriptor();
+                descriptor.setValue(fragment);
+                isSuccess = bluetoothGatt.writeDescriptor(descriptor);
+                Log.e(TAG, "Write descriptor result:" + isSuccess);
+                break;
+            case REQUEST_MTU:
+                isSuccess = bluetoothGatt.requestMtu(message.getValue());
+                Log.d(TAG, "Set mtu result:" + isSuccess);
+                if (isSuccess) {
+                    timelineRecorder.mark(BluetoothConnectionTimeline.Phase.MTU_REQUESTED);
+                }
+                break;
+            case READ_RSSI:
+                isSuccess = bluetoothGatt.readRemoteRssi();
+                Log.d(TAG, "Read rssi result:" + isSuccess);
+                break;
+            default:
+                isSuccess = false;
+                break;
+        }
+        return isSuccess;
+    }
+
+    /**
+     * 开始操作超时检测, 超时时间内没有任何回调则认为当前操作失败, 继续执行下一个操作
+     *
+     * @param message  已下发的消息
+     * @param sequence 下发时的操作序号
+     */
+    private void startOperationTimeout(final BluetoothMessage message, final long sequence) {
+        ScheduledExecutorService senderService = getSenderService();
+        if (null == senderService) {
+            return;
+        }
+        long timeout = message.getTimeout() > 0 ? message.getTimeout()
+                : bluetoothOptions.getOperationTimeout();
+        try {
+            senderService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // 序号变化说明期间有回调或者新的操作, 没有超时
+                    if (!operationSequence.compareAndSet(sequence, sequence + 1)) {
+                        return;
+                    }
+                    Log.e(TAG, "GATT operation " + message.getMessageType() + " time out. mac:" + getDeviceMac());
+                    pendingMessage = null;
+                    inFlightStreamCount.set(0);
+                    inFlightStreamMessages.clear();
+                    metrics.resetInFlightWrites();
+                    notifyOperationError(message, BluetoothOperationException.REASON_TIMEOUT,
+                            "GATT operation " + message.getMessageType() + " time out.");
+                    if (message.getMessageType() == BluetoothMessage.MessageType.REQUEST_MTU
+                            && null != bluetoothGatt && isDiscoverAfterMtu.compareAndSet(true, false)) {
+                        // 设置MTU超时, 继续连接流程
+                        bluetoothGatt.discoverServices();
+                    }
+                    scheduleSendData();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Start operation timeout failed. sender service is shutdown.");
+        }
+    }
+
+    /**
+     * 通知操作失败
+     *
+     * @param message      失败的消息
+     * @param reason       失败原因, 见BluetoothOperationException.REASON_*
+     * @param errorMessage 错误信息
+     */
+    private void notifyOperationError(BluetoothMessage message, int reason, String errorMessage) {
+        failFuture(message.getFuture(), new BluetoothOperationException(reason, errorMessage));
+        BluetoothGattCharacteristic characteristic = message.getCharacteristic();
+        String serviceUUID = null;
+        String characteristicUUID = null;
+        if (null != characteristic) {
+            serviceUUID = characteristic.getService().getUuid().toString();
+            characteristicUUID = characteristic.getUuid().toString();
+        }
+        switch (message.getMessageType()) {
+            case WRITE:
+            case WRITE_DESCRIPTOR:
+                notifyDataWriteError(bluetoothOptions.getDeviceMac(), serviceUUID,
+                        characteristicUUID, errorMessage);
+                break;
+            case READ:
+                notifyDataReadError(bluetoothOptions.getDeviceMac(), serviceUUID,
+                        characteristicUUID, errorMessage);
+                break;
+            case READ_RSSI:
+                if (null != message.getRssiCallback()) {
+                    message.getRssiCallback().onRssiRead(bluetoothOptions.getDeviceMac(),
+                            0, BluetoothGatt.GATT_FAILURE);
+                }
+                break;
+            case REQUEST_MTU:
+                if (null != message.getMtuCallback()) {
+                    message.getMtuCallback().onMtuChanged(bluetoothOptions.getDeviceMac(),
+                            negotiatedMtu, BluetoothGatt.GATT_FAILURE);
+                }
+                break;
+            default:
+                Log.e(TAG, errorMessage);
+                break;
+        }
+    }
+
+    /**
+     * 加入发送队列并触发发送, 队列已满被丢弃的消息通过错误回调通知
+     *
+     * @param message 消息
+     */
+    private void enqueue(BluetoothMessage message) {
+        List<BluetoothMessage> droppedMessages = dataQueue.add(message);
+        for (BluetoothMessage droppedMessage : droppedMessages) {
+            Log.e(TAG, "Queue is full, drop message. mac:" + getDeviceMac());
+            notifyOperationError(droppedMessage, BluetoothOperationException.REASON_QUEUE_FULL,
+                    "Queue is full. policy:" + bluetoothOptions.getQueueFullPolicy());
+        }
+        scheduleSendData();
+    }
+
+    /**
+     * 获取发送线程, BluetoothManager销毁后重新获取新的共用发送线程
+     *
+     * @return 数据服务未启动时返回null
+     */
+    private ScheduledExecutorService getSenderService() {
+        ScheduledExecutorService senderService = dataSenderService;
+        if (null != senderService && senderService.isShutdown()) {
+            senderService = BluetoothManager.getInstance().getSendScheduler();
+            dataSenderService = senderService;
+        }
+        return senderService;
+    }
+
+    /**
+     * 触发发送下一条数据
+     */
+    private void scheduleSendData() {
+        scheduleSendData(0);
+    }
+
+    /**
+     * 延迟触发发送下一条数据
+     *
+     * @param delay 延迟时间, 单位ms
+     */
+    private void scheduleSendData(long delay) {
+        ScheduledExecutorService senderService = getSenderService();
+        if (null == senderService) {
+            return;
+        }
+        try {
+            if (delay > 0) {
+                senderService.schedule(sendDataRunnable, delay, TimeUnit.MILLISECONDS);
+            } else if (isSendScheduled.compareAndSet(false, true)) {
+                senderService.execute(sendDataRunnable);
             }
-            Log.d(TAG, "device mac is " + getDeviceMac() + " Write data result:" + isSuccess + ", data:" + ByteUtil.bytesToHex(characteristic.getValue()));
+        } catch (RejectedExecutionException e) {
+            isSendScheduled.set(false);
+            Log.e(TAG, "Schedule send data failed. sender service is shutdown.");
+        }
+    }
+
+    /**
+     * 当前操作已完成(收到回调), 继续发送下一条数据
+     * 回调类型和当前等待的操作不一致时(如超时后才到达的回调)不处理
+     *
+     * @param messageType 回调对应的操作类型
+     * @return 当前等待的操作, 不匹配时返回null
+     */
+    private BluetoothMessage onOperationComplete(BluetoothMessage.MessageType messageType) {
+        BluetoothMessage message = pendingMessage;
+        if (null == message || message.getMessageType() != messageType) {
+            return null;
+        }
+        operationSequence.incrementAndGet();
+        pendingMessage = null;
+        scheduleSendData();
+        return message;
+    }
+
+    /**
+     * 写操作已回调, 有在途的无响应写包时先归还窗口, 否则视为需要响应的写操作已完成
+     * 需要响应的写操作只会在无响应写包全部回调后才下发, 因此两者不会同时在途
+     * 无响应写包失败时整条消息失败, 剩余分包不再发送
+     */
+    private void onWriteComplete(BluetoothGattCharacteristic characteristic, int status) {
+        metrics.onWriteCallback(System.nanoTime());
+        if (inFlightStreamCount.get() > 0) {
+            BluetoothMessage message = inFlightStreamMessages.pollFirst();
+            if (status != BluetoothGatt.GATT_SUCCESS && null != message && dataQueue.fail(message)) {
+                Log.e(TAG, "Stream write failed, drop remaining fragments. status:" + status
+                        + ", sent:" + message.getOffset() + " of " + message.getLength());
+                failFuture(message.getFuture(), new BluetoothOperationException(
+                        BluetoothOperationException.REASON_GATT_ERROR, status,
+                        "Write characteristic failed. status:" + status));
+            }
+            operationSequence.incrementAndGet();
+            inFlightStreamCount.decrementAndGet();
+            scheduleSendData();
         } else {
-            boolean isSuccess = bluetoothGatt.readCharacteristic(characteristic);
-            if (isSuccess) {
-                dataQueue.poll();
-            } else {
-                notifyDataReadError(bluetoothOptions.getDeviceMac(),
-                        characteristic.getService().getUuid().toString(),
-                        characteristic.getUuid().toString(), "Read characteristic result is false.");
+            BluetoothMessage message = onOperationComplete(BluetoothMessage.MessageType.WRITE);
+            if (null == message || null == message.getFuture()) {
+                return;
+            }
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                failFuture(message.getFuture(), new BluetoothOperationException(
+                        BluetoothOperationException.REASON_GATT_ERROR, status,
+                        "Write characteristic failed. status:" + status));
+            } else if (!message.hasRemaining()) {
+                // 最后一包写成功, 整包数据发送完成
+                message.getFuture().complete(new BluetoothDeviceData(getDeviceMac(),
+                        characteristic.getUuid(), message.getData()));
             }
-            Log.d(TAG, "device mac is " + getDeviceMac() + " Read data result:" + isSuccess);
         }
     }
 
+    /**
+     * 读操作已回调
+     *
+     * @param deviceData 读到的数据
+     * @param status     回调状态
+     */
+    private void onReadComplete(BluetoothDeviceData deviceData, int status) {
+        BluetoothMessage message = onOperationComplete(BluetoothMessage.MessageType.READ);
+        if (null == message || null == message.getFuture()) {
+            return;
+        }
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            message.getFuture().complete(deviceData);
+        } else {
+            failFuture(message.getFuture(), new BluetoothOperationException(
+                    BluetoothOperationException.REASON_GATT_ERROR, status,
+                    "Read characteristic failed. status:" + status));
+        }
+    }
+
+    private void failFuture(BluetoothFuture<BluetoothDeviceData> future,
+                            BluetoothOperationException exception) {
+        if (null != future) {
+            future.fail(exception);
+        }
+    }
+
+    /**
+     * 设备断开或关闭时, 已下发和队列中的异步操作都失败
+     */
+    private void failPendingFutures() {
+        BluetoothMessage message = pendingMessage;
+        if (null != message) {
+            failFuture(message.getFuture(), new BluetoothOperationException(
+                    BluetoothOperationException.REASON_DISCONNECTED, "Device is disconnected."));
+        }
+        for (BluetoothMessage queuedMessage : dataQueue.getMessages()) {
+            failFuture(queuedMessage.getFuture(), new BluetoothOperationException(
+                    BluetoothOperationException.REASON_DISCONNECTED, "Device is disconnected."));
+        }
+        requestTracker.failAll(new BluetoothOperationException(
+                BluetoothOperationException.REASON_DISCONNECTED, "Device is disconnected."));
+    }
+
     /**
      * 主线程handler, 处理发消息，连接等操作
      */
@@ -178,12 +669,23 @@ public class BluetoothLEDevice {
             switch (what) {
                 case CMD_CONNECT:
                     connectState = BluetoothProfile.STATE_CONNECTING;
+                    timelineRecorder.start();
+                    // 由BluetoothManager的连接调度控制同时连接的数量, 轮到时才发起连接
+                    BluetoothManager.getInstance().getConnectScheduler().request(BluetoothLEDevice.this,
+                            bluetoothOptions.getConnectPriority(), startConnectTask);
+                    break;
+                case CMD_START_CONNECT:
+                    // 排队期间被关闭
+                    if (connectState != BluetoothProfile.STATE_CONNECTING) {
+                        releaseConnectSlot();
+                        break;
+                    }
                     // 通过disconnect断开的, 可以再通过bluetoothGatt重连
                     // 通过close断开, 只能重新重连获取bluetoothGatt
                     Log.e(TAG, "Start to connect device:" + bluetoothOptions.getDeviceMac());
+                    timelineRecorder.mark(BluetoothConnectionTimeline.Phase.CONNECT_ISSUED);
                     if (null != bluetoothGatt) {
                         Log.e(TAG, "bluetoothGatt.connect()");
-                        BluetoothUtil.refreshGattCache(bluetoothGatt);
                         bluetoothGatt.connect();
                     } else {
                         Log.e(TAG, "bluetoothDevice.connectGatt()");
@@ -196,7 +698,14 @@ public class BluetoothLEDevice {
                         public void run() {
                             if (connectState != BluetoothProfile.STATE_CONNECTED) {
                                 Log.e(TAG, String.format(Locale.ENGLISH,"Connect device[%s] time out.", bluetoothOptions.getDeviceMac()));
+                                releaseConnectSlot();
+                                timelineRecorder.finish(BluetoothConnectionTimeline.Outcome.TIMEOUT);
                                 notifyDeviceConnectTimeout(bluetoothOptions.getDeviceMac());
+                                if (null != bluetoothOptions.getReconnectPolicy()) {
+                                    closeForReconnect();
+                                    scheduleReconnect(ReconnectPolicy.STATUS_CONNECT_TIMEOUT);
+                                    return;
+                                }
                                 close(bluetoothOptions.isAutoConnect());
                                 // 超时后开启重连
                                 if (bluetoothOptions.isAutoConnect()) {
@@ -212,35 +721,43 @@ public class BluetoothLEDevice {
                     }, bluetoothOptions.getConnectTimeout());
                     break;
                 case CMD_SET_MTU:
-                    boolean result = bluetoothGatt.requestMtu(msg.arg1);
-                    Log.d(TAG, "Set mtu result:" + result);
+                    enqueue(new BluetoothMessage(msg.arg1));
+                    break;
+                case CMD_RECONNECT:
+                    if (connectState != BluetoothProfile.STATE_DISCONNECTED) {
+                        Log.e(TAG, "[Reconnect] Device is connected or connecting, ignore to reconnect.");
+                        break;
+                    }
+                    // 如果不允许在搜索蓝牙设备的时候重连, 则推迟本次重连, 不计入重连次数
+                    if (BluetoothUtil.isScanningDevice() && bluetoothOptions.isRetryWhileScanning()) {
+                        long delay = Math.max(reconnectDelay, MIN_SCANNING_RECONNECT_DELAY);
+                        Log.e(TAG, "[Reconnect] Device is scanning, delay reconnect " + delay + "ms.");
+                        sendMessageDelayed(obtainMessage(CMD_RECONNECT, msg.arg1, 0), delay);
+                        break;
+                    }
+                    Log.e(TAG, "[Reconnect] Start to reconnect device:" + bluetoothOptions.getDeviceMac()
+                            + ", attempt:" + reconnectAttempt);
+                    sendEmptyMessage(CMD_CONNECT);
                     break;
             }
         }
     };
 
     /**
-     * 通过发射，解决发送命令时，出现的发送失败，返回结果是false的情况
-     *
-     * @return
+     * 连接调度轮到该设备时执行, 切换到主线程发起连接
      */
-    private boolean isDeviceBusy() {
-        boolean state = false;
-        try {
-            state = (boolean) readField(bluetoothGatt, "mDeviceBusy");
-            Log.i(TAG, "Device is busy:" + state);
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (NoSuchFieldException e) {
-            e.printStackTrace();
+    private final Runnable startConnectTask = new Runnable() {
+        @Override
+        public void run() {
+            mainHandler.sendEmptyMessage(CMD_START_CONNECT);
         }
-        return state;
-    }
+    };
 
-    public Object readField(Object object, String name) throws IllegalAccessException, NoSuchFieldException {
-        Field field = object.getClass().getDeclaredField(name);
-        field.setAccessible(true);
-        return field.get(object);
+    /**
+     * 本次连接已结束(成功、失败、超时或关闭), 释放连接调度的名额
+     */
+    private void releaseConnectSlot() {
+        BluetoothManager.getInstance().getConnectScheduler().release(this);
     }
 
     /**
@@ -314,8 +831,17 @@ public class BluetoothLEDevice {
                 case BluetoothProfile.STATE_CONNECTED:
                     Log.i(TAG, "Device connected, name:"
                             + gatt.getDevice().getName() + ",mac:" + gatt.getDevice().getAddress());
+                    timelineRecorder.mark(BluetoothConnectionTimeline.Phase.CONNECTED);
+                    // 只有缓存已失效时才刷新, 否则直接使用缓存的服务, 减少重连耗时
+                    isCacheRefreshed = false;
+                    if (getGattCacheTracker().consumeRefresh(mac)) {
+                        refreshGattCache(gatt);
+                    }
 
+                    // 新的连接在协商前使用默认MTU, 避免按请求的MTU拆包导致数据被截断
+                    negotiatedMtu = BluetoothOptions.DEFAULT_MTU;
                     if (bluetoothOptions.isNeedToSetMTU()) {
+                        isDiscoverAfterMtu.set(true);
                         setMTU();
                     } else {
                         Log.i(TAG, "Start to discover services...");
@@ -324,16 +850,38 @@ public class BluetoothLEDevice {
                     }
                     stopReconnectDeviceTask();
                     connectTimeoutHandler.removeCallbacksAndMessages(null);
+                    releaseConnectSlot();
                     startDataService();
                     break;
                 case BluetoothProfile.STATE_DISCONNECTED:
                     Log.e(TAG, "Device disconnect:" + mac);
+                    // 连接失败(如status 133)时也会回调断开
+                    releaseConnectSlot();
+                    // 就绪前断开, 本次连接失败
+                    timelineRecorder.finish(BluetoothConnectionTimeline.Outcome.FAILED);
                     notifyCharacteristic = null;
                     writeCharacteristic = null;
                     isReady = false;
-                    // 从连接变为断开才需要启动重试机制, 否则会一直重试
-                    // 断开后, status = 8, 不能用这个作为判断
-                    if (lastState == BluetoothProfile.STATE_CONNECTED) {
+                    // 未完成的就绪流程失效
+                    readySequence.incrementAndGet();
+                    // 断开前未拼完的数据帧丢弃
+                    frameBuffers.clear();
+                    metrics.onDisconnected();
+                    priorityController.reset();
+                    // 断开前收到的通知数据立即回调
+                    if (null != notificationBatcher) {
+                        notificationBatcher.flushAll();
+                    }
+                    if (null != bluetoothOptions.getReconnectPolicy()) {
+                        // 连接断开或连接失败都按策略重连, 手动断开时状态已经是DISCONNECTED, 不重连
+                        if (lastState == BluetoothProfile.STATE_CONNECTED
+                                || lastState == BluetoothProfile.STATE_CONNECTING) {
+                            closeForReconnect();
+                            scheduleReconnect(status);
+                        }
+                    } else if (lastState == BluetoothProfile.STATE_CONNECTED) {
+                        // 从连接变为断开才需要启动重试机制, 否则会一直重试
+                        // 断开后, status = 8, 不能用这个作为判断
                         startReconnectDeviceTask();
                     }
                     stopDataService();
@@ -351,57 +899,57 @@ public class BluetoothLEDevice {
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
             super.onServicesDiscovered(gatt, status);
             Log.e(TAG, "onServicesDiscovered");
+            String mac = gatt.getDevice().getAddress();
             if (status == BluetoothGatt.GATT_SUCCESS) {
+                getGattCacheTracker().onServicesDiscovered(mac, gatt.getServices());
                 BluetoothGattService service = gatt.getService(bluetoothOptions.getServiceUUID());
                 if (service == null) {
-                    String errorMessage = "Can not find service:" + bluetoothOptions.getServiceUUID();
-                    Log.e(TAG, errorMessage);
-                    notifyDiscoverServicesError(bluetoothOptions.getDeviceMac(), errorMessage);
+                    onServicesMissing(gatt, "Can not find service:" + bluetoothOptions.getServiceUUID());
                     return;
                 }
 
                 notifyCharacteristic = service
                         .getCharacteristic(bluetoothOptions.getNotifyCharacteristicUUID());
                 if (null == notifyCharacteristic) {
-                    String errorMessage = "Can not find notify characteristic:"
-                            + bluetoothOptions.getNotifyCharacteristicUUID();
-                    Log.e(TAG, errorMessage);
-                    notifyDiscoverServicesError(bluetoothOptions.getDeviceMac(), errorMessage);
+                    onServicesMissing(gatt, "Can not find notify characteristic:"
+                            + bluetoothOptions.getNotifyCharacteristicUUID());
                     return;
                 }
 
-                // 开启通知
-                setCharacteristicNotification(notifyCharacteristic, true);
                 writeCharacteristic = service.getCharacteristic(
                         bluetoothOptions.getWriteCharacteristicUUID());
-                if (null == notifyCharacteristic) {
-                    String errorMessage = "Can not find write characteristic:"
-                            + bluetoothOptions.getWriteCharacteristicUUID();
-                    Log.e(TAG, errorMessage);
-                    notifyDiscoverServicesError(bluetoothOptions.getDeviceMac(), errorMessage);
+                if (null == writeCharacteristic) {
+                    onServicesMissing(gatt, "Can not find write characteristic:"
+                            + bluetoothOptions.getWriteCharacteristicUUID());
                     return;
                 }
-                if (null != writeCharacteristic) {
-                    isReady = true;
-                    notifyDeviceReady(gatt.getDevice().getAddress());
-                }
+                timelineRecorder.mark(BluetoothConnectionTimeline.Phase.SERVICES_DISCOVERED);
+                // 开启通知, 全部开启后才就绪
+                startReadySequence();
             } else {
-                // 重新刷新缓存
-                BluetoothUtil.refreshGattCache(gatt);
-                notifyDiscoverServicesError(bluetoothOptions.getDeviceMac(),
-                        "state error:" + status);
+                // 缓存可能已损坏, 刷新缓存后重新发现一次
+                onServicesMissing(gatt, "state error:" + status);
             }
 
         }
 
+        /**
+         * 设备服务已变更(Android 12及以上系统回调), 低版本系统通过Service Changed特征的indication判断
+         */
+        public void onServiceChanged(BluetoothGatt gatt) {
+            BluetoothLEDevice.this.onServiceChanged(gatt);
+        }
+
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt,
                                          BluetoothGattCharacteristic characteristic, int status) {
             Log.d(TAG, "onCharacteristicRead");
             super.onCharacteristicRead(gatt, characteristic, status);
             // 读数据回调通知
-            notifyDeviceDataRead(new BluetoothDeviceData(gatt.getDevice().getAddress(),
-                    characteristic.getUuid(), characteristic.getValue()), status);
+            BluetoothDeviceData deviceData = new BluetoothDeviceData(gatt.getDevice().getAddress(),
+                    characteristic.getUuid(), getCallbackValue(characteristic));
+            notifyDeviceDataRead(deviceData, status);
+            onReadComplete(deviceData, status);
         }
 
         @Override
@@ -411,16 +959,33 @@ public class BluetoothLEDevice {
             super.onCharacteristicWrite(gatt, characteristic, status);
             // 写数据回调通知
             notifyDeviceDataWrite(new BluetoothDeviceData(gatt.getDevice().getAddress(),
-                    characteristic.getUuid(), characteristic.getValue()), status);
+                    characteristic.getUuid(), getCallbackValue(characteristic)), status);
+            onWriteComplete(characteristic, status);
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
             Log.d(TAG, "onCharacteristicChanged:" + ByteUtil.bytesToHex(characteristic.getValue()));
             super.onCharacteristicChanged(gatt, characteristic);
-            // 数据变更回调通知
-            notifyDeviceDataChanged(new BluetoothDeviceData(gatt.getDevice().getAddress(),
-                    characteristic.getUuid(), characteristic.getValue()));
+            if (SERVICE_CHANGED_UUID.equals(characteristic.getUuid())) {
+                onServiceChanged(gatt);
+                return;
+            }
+            byte[] value = characteristic.getValue();
+            metrics.onNotification(null == value ? 0 : value.length, System.nanoTime());
+            String mac = gatt.getDevice().getAddress();
+            UUID serviceUUID = characteristic.getService().getUuid();
+            CaptureLogWriter captureLog = BluetoothLEDevice.this.captureLog;
+            if (null != captureLog) {
+                // 原始通知直接写入映射文件, 不需要复制
+                captureLog.append(mac, characteristic.getUuid(), value);
+            }
+            FrameDecoder decoder = frameDecoder;
+            if (null == decoder) {
+                onDataChanged(serviceUUID, mac, characteristic.getUuid(), value, false);
+                return;
+            }
+            decodeFrames(decoder, mac, serviceUUID, characteristic.getUuid(), value);
         }
 
         @Override
@@ -433,21 +998,277 @@ public class BluetoothLEDevice {
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             Log.e(TAG, "onDescriptorWrite  " + "device mac is " + getDeviceMac());
             super.onDescriptorWrite(gatt, descriptor, status);
+            BluetoothMessage message = onOperationComplete(BluetoothMessage.MessageType.WRITE_DESCRIPTOR);
+            if (null == message || null == message.getFuture()) {
+                return;
+            }
+            UUID characteristicUUID = descriptor.getCharacteristic().getUuid();
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                message.getFuture().complete(new BluetoothDeviceData(gatt.getDevice().getAddress(),
+                        characteristicUUID, descriptor.getValue()));
+            } else {
+                failFuture(message.getFuture(), new BluetoothOperationException(
+                        BluetoothOperationException.REASON_GATT_ERROR, status,
+                        "Write descriptor failed. status:" + status));
+            }
         }
 
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
             super.onReadRemoteRssi(gatt, rssi, status);
+            BluetoothMessage message = onOperationComplete(BluetoothMessage.MessageType.READ_RSSI);
+            if (null != message && null != message.getRssiCallback()) {
+                message.getRssiCallback().onRssiRead(gatt.getDevice().getAddress(), rssi, status);
+            }
         }
 
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
             super.onMtuChanged(gatt, mtu, status);
             Log.i(TAG, "MTU changed,  mtu=" + mtu + ", status:" + status);
-            gatt.discoverServices();
+            timelineRecorder.mark(BluetoothConnectionTimeline.Phase.MTU_CHANGED);
+            // 按协商后的MTU拆包, 发送时才拆包, 队列中未发送的数据(包括发送了一部分的消息)也使用新的长度
+            // 需要在onOperationComplete触发发送之前设置
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                negotiatedMtu = mtu;
+            }
+            BluetoothMessage message = onOperationComplete(BluetoothMessage.MessageType.REQUEST_MTU);
+            if (null != message && null != message.getMtuCallback()) {
+                message.getMtuCallback().onMtuChanged(gatt.getDevice().getAddress(),
+                        negotiatedMtu, status);
+            }
+            if (isDiscoverAfterMtu.compareAndSet(true, false)) {
+                gatt.discoverServices();
+            }
         }
     };
 
+    /**
+     * 就绪流程: 通过操作队列依次开启notifyCharacteristic和BluetoothOptions中配置的其他特征的通知,
+     * 全部完成后才标记就绪并回调onReady, 开启失败的特征通过onDiscoverServicesError通知
+     */
+    private void startReadySequence() {
+        final long sequence = readySequence.incrementAndGet();
+        List<BluetoothFuture<BluetoothDeviceData>> futures = new ArrayList<>();
+        List<UUID> characteristicUUIDs = new ArrayList<>();
+        futures.add(setNotification(notifyCharacteristic, true, false));
+        characteristicUUIDs.add(notifyCharacteristic.getUuid());
+        for (BluetoothOptions.Subscription subscription : bluetoothOptions.getSubscriptions()) {
+            BluetoothGattService service = bluetoothGatt.getService(subscription.getServiceUUID());
+            BluetoothGattCharacteristic characteristic = null == service ? null
+                    : service.getCharacteristic(subscription.getCharacteristicUUID());
+            if (null == characteristic) {
+                String errorMessage = "Can not find subscription characteristic:"
+                        + subscription.getServiceUUID() + "/" + subscription.getCharacteristicUUID();
+                Log.e(TAG, errorMessage);
+                // 缓存中可能缺少该特征, 下一次连接时刷新
+                getGattCacheTracker().invalidate(getDeviceMac(), errorMessage);
+                notifyDiscoverServicesError(getDeviceMac(), errorMessage);
+                continue;
+            }
+            futures.add(setNotification(characteristic, true, subscription.isIndication()));
+            characteristicUUIDs.add(characteristic.getUuid());
+        }
+
+        final AtomicInteger remainingCount = new AtomicInteger(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            final UUID characteristicUUID = characteristicUUIDs.get(i);
+            futures.get(i).addListener(new BluetoothFuture.Listener<BluetoothDeviceData>() {
+                @Override
+                public void onComplete(BluetoothFuture<BluetoothDeviceData> future) {
+                    if (readySequence.get() != sequence) {
+                        return;
+                    }
+                    if (!future.isSuccess()) {
+                        String errorMessage = "Enable notification failed. characteristic:"
+                                + characteristicUUID + ", " + future.getError().getMessage();
+                        Log.e(TAG, errorMessage);
+                        notifyDiscoverServicesError(getDeviceMac(), errorMessage);
+                    }
+                    if (remainingCount.decrementAndGet() == 0) {
+                        onReadySequenceComplete(sequence);
+                    }
+                }
+            });
+        }
+    }
+
+    private BluetoothGattCacheTracker getGattCacheTracker() {
+        return BluetoothManager.getInstance().getGattCacheTracker();
+    }
+
+    private void refreshGattCache(BluetoothGatt gatt) {
+        isCacheRefreshed = true;
+        BluetoothUtil.refreshGattCache(gatt);
+    }
+
+    /**
+     * 发现服务失败或缺少配置的服务、特征, 可能是系统缓存了旧的服务
+     * 本次连接还没有刷新过缓存时, 刷新后重新发现服务, 否则通知错误并在下一次连接时刷新
+     *
+     * @param gatt         当前连接
+     * @param errorMessage 错误信息
+     */
+    private void onServicesMissing(final BluetoothGatt gatt, String errorMessage) {
+        Log.e(TAG, errorMessage);
+        if (isCacheRefreshed) {
+            timelineRecorder.finish(BluetoothConnectionTimeline.Outcome.FAILED);
+            getGattCacheTracker().invalidate(getDeviceMac(), errorMessage);
+            notifyDiscoverServicesError(bluetoothOptions.getDeviceMac(), errorMessage);
+            return;
+        }
+        Log.e(TAG, "Refresh gatt cache and discover services again.");
+        refreshGattCache(gatt);
+        rediscoverServices(gatt);
+    }
+
+    /**
+     * 设备的服务已变更, 刷新缓存后重新发现服务, 重新开启通知后再次回调onReady
+     *
+     * @param gatt 当前连接
+     */
+    private void onServiceChanged(BluetoothGatt gatt) {
+        Log.e(TAG, "Service changed, mac:" + getDeviceMac());
+        isReady = false;
+        readySequence.incrementAndGet();
+        refreshGattCache(gatt);
+        rediscoverServices(gatt);
+    }
+
+    private void rediscoverServices(final BluetoothGatt gatt) {
+        mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (gatt == bluetoothGatt && isConnected()) {
+                    gatt.discoverServices();
+                }
+            }
+        }, REDISCOVER_DELAY);
+    }
+
+    private void onReadySequenceComplete(long sequence) {
+        if (readySequence.get() != sequence || !isConnected()) {
+            return;
+        }
+        isReady = true;
+        reconnectAttempt = 0;
+        timelineRecorder.mark(BluetoothConnectionTimeline.Phase.NOTIFICATIONS_ENABLED);
+        timelineRecorder.finish(BluetoothConnectionTimeline.Outcome.READY);
+        notifyDeviceReady(getDeviceMac());
+        // 就绪前已入队的数据, 就绪后开始发送
+        scheduleSendData();
+    }
+
+    /**
+     * 获取回调使用的特征数据
+     * 异步回调时特征数据可能在回调前被下一次通知覆盖, 需要复制一份
+     *
+     * @param characteristic
+     * @return
+     */
+    private byte[] getCallbackValue(BluetoothGattCharacteristic characteristic) {
+        byte[] value = characteristic.getValue();
+        // 分包复用缓冲会被下一个分包覆盖, 同步回调时也需要复制
+        if (null == value || (callbackDispatcher.isInline() && value != fragmentBuffer)) {
+            return value;
+        }
+        return value.clone();
+    }
+
+    /**
+     * 通知数据写入拼接缓冲区, 回调其中所有完整的数据帧
+     *
+     * @param decoder            数据帧解码器
+     * @param mac                设备mac
+     * @param serviceUUID        通知特征所属服务id
+     * @param characteristicUUID 通知特征id
+     * @param value              通知数据
+     */
+    private void decodeFrames(FrameDecoder decoder, String mac, UUID serviceUUID,
+                              UUID characteristicUUID, byte[] value) {
+        ByteRingBuffer buffer = frameBuffers.get(characteristicUUID);
+        if (null == buffer) {
+            buffer = new ByteRingBuffer(frameBufferSize);
+            frameBuffers.put(characteristicUUID, buffer);
+        }
+        if (!buffer.write(value)) {
+            // 缓冲区满说明数据错误或缓冲区太小, 丢弃未完成的数据重新开始
+            Log.e(TAG, "Frame buffer overflow, discard " + buffer.available() + " bytes.");
+            buffer.clear();
+            if (!buffer.write(value)) {
+                return;
+            }
+        }
+        while (true) {
+            byte[] frame;
+            try {
+                frame = decoder.decode(buffer);
+            } catch (Exception e) {
+                Log.e(TAG, "Decode frame error:" + e.getMessage(), e);
+                buffer.clear();
+                return;
+            }
+            if (null == frame) {
+                return;
+            }
+            onDataChanged(serviceUUID, mac, characteristicUUID, frame, true);
+        }
+    }
+
+    /**
+     * 收到通知数据(设置了解码器时为完整的数据帧)
+     * 回调给外部的数据必须是库自己持有的数组, 不能是协议栈的数组(可能被下一次通知覆盖)
+     * 需要逐条回调时复制一份, 请求匹配、订阅回调和数据回调共用; 开启批量回调时只复制到批次中,
+     * 逐条回调的数据引用批次数组中的这一段, 不再单独复制
+     *
+     * @param serviceUUID        通知特征所属服务id
+     * @param mac                设备mac
+     * @param characteristicUUID 通知特征id
+     * @param value              通知数据
+     * @param isOwned            value是否已经是库持有的数组(如拼接出的数据帧)
+     */
+    private void onDataChanged(UUID serviceUUID, String mac, UUID characteristicUUID,
+                               byte[] value, boolean isOwned) {
+        // 订阅了该特征的回调
+        BluetoothNotifyCallback[] notifyCallbacks = subscriptionRouter.getCallbacks(serviceUUID, characteristicUUID);
+        BluetoothNotifyCallback[] streamCallbacks = publisherCallbacks.getListeners();
+        boolean hasPendingRequest = requestTracker.size() > 0;
+        if (null != notificationBatcher && notifyCallbacks.length == 0 && streamCallbacks.length == 0
+                && !hasPendingRequest) {
+            // 只有批量回调, 数据直接复制到批次中
+            notificationBatcher.add(characteristicUUID, value, System.nanoTime());
+            return;
+        }
+        BluetoothDeviceData deviceData;
+        if (null != notificationBatcher && !isOwned && null != value) {
+            // 只复制到批次中一次, 逐条回调共用批次中的数据
+            deviceData = notificationBatcher.addAndShare(characteristicUUID, value, System.nanoTime());
+        } else {
+            if (!isOwned && null != value) {
+                value = value.clone();
+            }
+            deviceData = new BluetoothDeviceData(mac, characteristicUUID, value);
+            if (null != notificationBatcher) {
+                notificationBatcher.add(characteristicUUID, value, System.nanoTime());
+            }
+        }
+        if (hasPendingRequest) {
+            // 先完成匹配的请求, 通知数据仍然回调给所有监听
+            requestTracker.onResponse(deviceData);
+        }
+        if (notifyCallbacks.length > 0) {
+            notifySubscribers(notifyCallbacks, deviceData);
+        }
+        if (streamCallbacks.length > 0) {
+            notifySubscribers(streamCallbacks, deviceData);
+        }
+        if (null != notificationBatcher) {
+            return;
+        }
+        // 数据变更回调通知
+        notifyDeviceDataChanged(deviceData);
+    }
+
     /**
      * 设置MTU
      */
@@ -466,19 +1287,32 @@ public class BluetoothLEDevice {
     private void startDataService() {
         Log.e(TAG, "Start data service ...");
         if (null == dataSenderService) {
-            dataSenderService = Executors.newSingleThreadExecutor();
-            dataSenderService.execute(sendDataRunnable);
+            pendingMessage = null;
+            inFlightStreamCount.set(0);
+            inFlightStreamMessages.clear();
+            streamWindow = bluetoothOptions.getStreamCreditWindow();
+            sendFailedCount = 0;
+            isSendScheduled.set(false);
+            // 使用所有设备共用的发送线程, 连接数增加不会增加线程数
+            dataSenderService = BluetoothManager.getInstance().getSendScheduler();
+            scheduleSendData();
         }
     }
 
     /**
-     * 停止数据服务
+     * 停止数据服务, 断开前已下发和队列中的消息都不再发送, 异步操作回调失败
      */
     private void stopDataService() {
-        if (null != dataSenderService) {
-            dataSenderService.shutdownNow();
-            dataSenderService = null;
-        }
+        failPendingFutures();
+        // 队列中的消息只做标记, 发送线程可能正在取消息, 重连后由发送线程移除
+        dataQueue.clear();
+        // 共用的发送线程由BluetoothManager管理, 这里只解除关联
+        dataSenderService = null;
+        pendingMessage = null;
+        inFlightStreamCount.set(0);
+        inFlightStreamMessages.clear();
+        // 使已提交的超时检测失效
+        operationSequence.incrementAndGet();
     }
 
     public static BluetoothLEDevice create(Context context, BluetoothOptions bluetoothOptions) {
@@ -494,6 +1328,24 @@ public class BluetoothLEDevice {
     protected BluetoothLEDevice(Context context, BluetoothOptions bluetoothOptions) {
         this.context = context.getApplicationContext();
         this.bluetoothOptions = bluetoothOptions;
+        this.dataQueue = new BluetoothMessageQueue(bluetoothOptions);
+        this.metrics = new BluetoothDeviceMetrics(bluetoothOptions.getDeviceMac());
+        this.priorityController = new BluetoothConnectionPriorityController(bluetoothOptions);
+        this.timelineRecorder = new BluetoothConnectionTimelineRecorder(bluetoothOptions.getDeviceMac());
+        this.callbackDispatcher = new BluetoothCallbackDispatcher(
+                bluetoothOptions.getCallbackDispatchMode(), "BluetoothCallback-" + bluetoothOptions.getDeviceMac());
+        if (bluetoothOptions.isNotificationBatchEnabled()) {
+            this.notificationBatcher = new BluetoothNotificationBatcher(bluetoothOptions.getDeviceMac(),
+                    bluetoothOptions.getNotificationBatchSize(), bluetoothOptions.getNotificationBatchWindow(),
+                    new BluetoothNotificationBatcher.FlushListener() {
+                        @Override
+                        public void onFlush(BluetoothDataBatch batch) {
+                            notifyDataBatch(batch);
+                        }
+                    });
+        } else {
+            this.notificationBatcher = null;
+        }
         try {
             bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         } catch (Throwable e) {
@@ -528,6 +1380,7 @@ public class BluetoothLEDevice {
             }
             return true;
         }
+        reconnectAttempt = 0;
         Message msg = new Message();
         msg.what = CMD_CONNECT;
         mainHandler.sendMessageDelayed(msg, 100);
@@ -535,42 +1388,239 @@ public class BluetoothLEDevice {
     }
 
     /**
-     * 开始重连设备任务
+     * 按重连策略安排下一次重连, 策略放弃时停止重连
+     *
+     * @param status 导致断开的GATT状态, 或ReconnectPolicy.STATUS_*
+     */
+    private void scheduleReconnect(int status) {
+        ReconnectPolicy policy = bluetoothOptions.getReconnectPolicy();
+        reconnectAttempt++;
+        long delay = policy.getReconnectDelay(status, reconnectAttempt);
+        if (delay < 0) {
+            Log.e(TAG, "[Reconnect] Give up reconnecting device:" + bluetoothOptions.getDeviceMac()
+                    + ", status:" + status + ", attempt:" + reconnectAttempt);
+            stopReconnectDeviceTask();
+            return;
+        }
+        Log.e(TAG, "[Reconnect] Reconnect device after " + delay + "ms, status:" + status
+                + ", attempt:" + reconnectAttempt);
+        isRetryConnect = true;
+        reconnectDelay = delay;
+        mainHandler.removeMessages(CMD_RECONNECT);
+        mainHandler.sendMessageDelayed(mainHandler.obtainMessage(CMD_RECONNECT, status, 0), delay);
+    }
+
+    /**
+     * 重连前释放Gatt, 下一次通过connectGatt重新连接
+     * 连接失败(如133)后复用旧的Gatt连接通常会继续失败
+     */
+    private void closeForReconnect() {
+        close(true);
+        bluetoothGatt = null;
+    }
+
+    /**
+     * 开始重连设备任务
+     */
+    private void startReconnectDeviceTask() {
+        if (null != bluetoothOptions.getReconnectPolicy()) {
+            reconnectAttempt = 0;
+            scheduleReconnect(ReconnectPolicy.STATUS_BLUETOOTH_ON);
+            return;
+        }
+        if (bluetoothOptions.isAutoConnect() || bluetoothOptions.getRetryConnectCount() > 0) {
+            retryConnectCount = 0;
+            Log.e(TAG, "Start reconnect device task.");
+            stopReconnectDeviceTask();
+            isRetryConnect = true;
+            Message msg = new Message();
+            msg.what = CMD_CONNECT;
+            retryConnectHandler.removeCallbacksAndMessages(null);
+            retryConnectHandler.sendMessageDelayed(msg, 500);
+        } else {
+            Log.e(TAG, "Device is not set retry connect config , no need to retry.");
+        }
+    }
+
+    /**
+     * 取消重连
+     */
+    private void stopReconnectDeviceTask() {
+        Log.e(TAG, "Stop reconnect device task.");
+        isRetryConnect = false;
+        retryConnectHandler.removeCallbacksAndMessages(null);
+        mainHandler.removeMessages(CMD_RECONNECT);
+//        retryConnectCount = 0;
+    }
+
+    /**
+     * 写数据
+     * 注意:
+     * 1、BLE特征一次写入的最大字节是20个. 超过20的会丢弃
+     * 2、需要在UI线程中写数据，否则接受不到回调
+     *
+     * @param data 下发数据
+     */
+    public void writeData(byte[] data) {
+        writeData(data, false);
+    }
+
+    /**
+     * 写数据
+     * 流模式下除最后一包外都使用WRITE_TYPE_NO_RESPONSE下发, 同时在途的包数量由
+     * BluetoothOptions.getStreamCreditWindow()限制, 窗口已满或协议栈忙时等待写回调再下发下一包,
+     * 发送速率跟随写回调. 最后一包使用需要响应的写操作,
+     * 收到最后一包的回调即表示整包数据已发送完成. 适用于固件升级等大数据量传输
+     *
+     * @param data         下发数据
+     * @param isStreamMode 是否使用流模式
+     */
+    public void writeData(byte[] data, boolean isStreamMode) {
+        writeData(data, isStreamMode, isStreamMode ? BluetoothMessage.Priority.BULK
+                : BluetoothMessage.Priority.NORMAL);
+    }
+
+    /**
+     * 按指定优先级写数据
+     * 高优先级的数据可以在低优先级数据的分包之间插队发送, 如升级过程中下发的停止命令
+     *
+     * @param data     下发数据
+     * @param priority 发送优先级
+     */
+    public void writeData(byte[] data, BluetoothMessage.Priority priority) {
+        writeData(data, false, priority);
+    }
+
+    /**
+     * 按指定优先级写数据
+     *
+     * @param data         下发数据
+     * @param isStreamMode 是否使用流模式
+     * @param priority     发送优先级
+     * @see #writeData(byte[], boolean)
+     */
+    public void writeData(byte[] data, boolean isStreamMode, BluetoothMessage.Priority priority) {
+        writeData(data, isStreamMode, priority, null);
+    }
+
+    /**
+     * 异步写数据, 返回的BluetoothFuture在整包数据(所有分包)都写成功后完成
+     * 写失败、超时、设备断开或队列已满时失败, 失败原因见BluetoothOperationException
+     * 原有的BluetoothDeviceDataCallback回调不受影响
+     *
+     * @param data 下发数据
+     * @return
+     */
+    public BluetoothFuture<BluetoothDeviceData> writeDataAsync(byte[] data) {
+        return writeDataAsync(data, false, BluetoothMessage.Priority.NORMAL);
+    }
+
+    /**
+     * 按指定模式和优先级异步写数据
+     *
+     * @param data         下发数据
+     * @param isStreamMode 是否使用流模式
+     * @param priority     发送优先级
+     * @return
+     * @see #writeDataAsync(byte[])
+     */
+    public BluetoothFuture<BluetoothDeviceData> writeDataAsync(byte[] data, boolean isStreamMode,
+                                                               BluetoothMessage.Priority priority) {
+        BluetoothFuture<BluetoothDeviceData> future = new BluetoothFuture<>();
+        writeData(data, isStreamMode, priority, future);
+        return future;
+    }
+
+    /**
+     * 发送请求并等待设备通过通知特征(onCharacteristicChanged)返回的响应
+     * 不需要等上一个请求响应后再发送, 可以同时有多个请求在等待响应, 按请求顺序匹配
+     * 等待超时时间使用BluetoothOptions.getOperationTimeout()
+     *
+     * @param data    请求数据
+     * @param matcher 响应匹配器
+     * @return 匹配的响应数据, 请求发送失败、等待超时或设备断开时失败
+     */
+    public BluetoothFuture<BluetoothDeviceData> request(byte[] data, BluetoothResponseMatcher matcher) {
+        return request(data, matcher, bluetoothOptions.getOperationTimeout());
+    }
+
+    /**
+     * 发送请求并等待设备响应
+     *
+     * @param data    请求数据
+     * @param matcher 响应匹配器
+     * @param timeout 等待响应的超时时间(毫秒), 从调用时开始计算, 包含在队列中等待发送的时间
+     * @return
+     * @see #request(byte[], BluetoothResponseMatcher)
      */
-    private void startReconnectDeviceTask() {
-        if (bluetoothOptions.isAutoConnect() || bluetoothOptions.getRetryConnectCount() > 0) {
-            retryConnectCount = 0;
-            Log.e(TAG, "Start reconnect device task.");
-            stopReconnectDeviceTask();
-            isRetryConnect = true;
-            Message msg = new Message();
-            msg.what = CMD_CONNECT;
-            retryConnectHandler.removeCallbacksAndMessages(null);
-            retryConnectHandler.sendMessageDelayed(msg, 500);
-        } else {
-            Log.e(TAG, "Device is not set retry connect config , no need to retry.");
+    public BluetoothFuture<BluetoothDeviceData> request(byte[] data, BluetoothResponseMatcher matcher,
+                                                        long timeout) {
+        if (null == matcher) {
+            throw new NullPointerException("Response matcher is null.");
         }
+        final BluetoothFuture<BluetoothDeviceData> responseFuture = new BluetoothFuture<>();
+        // 先添加等待再下发请求, 避免响应先于添加到达
+        requestTracker.add(data, matcher, responseFuture, timeout,
+                BluetoothManager.getInstance().getSendScheduler());
+        final BluetoothFuture<BluetoothDeviceData> writeFuture = new BluetoothFuture<>();
+        writeFuture.addListener(new BluetoothFuture.Listener<BluetoothDeviceData>() {
+            @Override
+            public void onComplete(BluetoothFuture<BluetoothDeviceData> future) {
+                if (!future.isSuccess()) {
+                    responseFuture.fail(future.getError());
+                }
+            }
+        });
+        // 请求被取消时不再发送未发送的请求数据
+        responseFuture.addListener(new BluetoothFuture.Listener<BluetoothDeviceData>() {
+            @Override
+            public void onComplete(BluetoothFuture<BluetoothDeviceData> future) {
+                if (future.isCancelled()) {
+                    writeFuture.cancel(false);
+                }
+            }
+        });
+        writeData(data, false, BluetoothMessage.Priority.NORMAL, writeFuture);
+        return responseFuture;
     }
 
     /**
-     * 取消重连
+     * 设置数据帧解码器, 设置后onDataChanged和request的响应都是完整的数据帧, 而不是单个通知
+     * 每个通知特征使用一个默认大小(4096字节)的拼接缓冲区
+     *
+     * @param frameDecoder 数据帧解码器, 为null时恢复为每个通知直接回调
      */
-    private void stopReconnectDeviceTask() {
-        Log.e(TAG, "Stop reconnect device task.");
-        isRetryConnect = false;
-        retryConnectHandler.removeCallbacksAndMessages(null);
-//        retryConnectCount = 0;
+    public void setFrameDecoder(FrameDecoder frameDecoder) {
+        setFrameDecoder(frameDecoder, DEFAULT_FRAME_BUFFER_SIZE);
     }
 
     /**
-     * 写数据
-     * 注意:
-     * 1、BLE特征一次写入的最大字节是20个. 超过20的会丢弃
-     * 2、需要在UI线程中写数据，否则接受不到回调
+     * 设置数据帧解码器
      *
-     * @param data 下发数据
+     * @param frameDecoder 数据帧解码器
+     * @param bufferSize   拼接缓冲区大小, 需要大于最大数据帧长度加一个通知的长度
+     * @see #setFrameDecoder(FrameDecoder)
      */
-    public void writeData(byte[] data) {
+    public void setFrameDecoder(FrameDecoder frameDecoder, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Frame buffer size must be positive.");
+        }
+        this.frameBufferSize = bufferSize;
+        this.frameDecoder = frameDecoder;
+        frameBuffers.clear();
+    }
+
+    /**
+     * 等待响应的请求数
+     *
+     * @return
+     */
+    public int getPendingRequestCount() {
+        return requestTracker.size();
+    }
+
+    private void writeData(byte[] data, boolean isStreamMode, BluetoothMessage.Priority priority,
+                           BluetoothFuture<BluetoothDeviceData> future) {
         if (!isConnected()) {
             Log.e(TAG, "Device is not connected.");
             notifyDataWriteError(bluetoothOptions.getDeviceMac(),
@@ -579,6 +1629,8 @@ public class BluetoothLEDevice {
                     null != bluetoothOptions.getWriteCharacteristicUUID() ?
                             bluetoothOptions.getWriteCharacteristicUUID().toString() : null,
                     "Write data failed. Device is not connected");
+            failFuture(future, new BluetoothOperationException(
+                    BluetoothOperationException.REASON_NOT_CONNECTED, "Device is not connected."));
             return;
         }
 
@@ -590,10 +1642,13 @@ public class BluetoothLEDevice {
                     null != bluetoothOptions.getWriteCharacteristicUUID() ?
                             bluetoothOptions.getWriteCharacteristicUUID().toString() : null,
                     "Write data failed. Write Characteristic is null");
+            failFuture(future, new BluetoothOperationException(
+                    BluetoothOperationException.REASON_NOT_FOUND, "Write characteristic is null."));
             return;
         }
 
-        processData(writeCharacteristic, data, BluetoothMessage.MessageType.WRITE);
+        processData(writeCharacteristic, data, BluetoothMessage.MessageType.WRITE, isStreamMode,
+                priority, future);
     }
 
 
@@ -603,26 +1658,20 @@ public class BluetoothLEDevice {
      * @param characteristic 特征
      * @param data           数据
      * @param messageType    写或读
+     * @param isStreamMode   是否使用流模式, 流模式下只有最后一包需要设备响应
+     * @param priority       发送优先级, 所有分包使用同一优先级, 保证分包顺序
+     * @param future         异步结果, 可以为null
      */
-    private void processData(BluetoothGattCharacteristic characteristic, byte[] data, BluetoothMessage.MessageType messageType) {
-        int dataLen = data.length;
-        // 数据超过MTU, 则需要拆包进行发送
-        int maxDataLen = bluetoothOptions.getMaxDataLen();
-        if (dataLen > maxDataLen) {
-            int dataCount = dataLen % maxDataLen == 0 ? dataLen / maxDataLen : dataLen / maxDataLen + 1;
-            Log.e(TAG, "dataCount:" + dataCount);
-            byte[] sendData = null;
-            for (int i = 0; i < dataCount; i++) {
-                if (i != dataCount - 1) {
-                    sendData = Arrays.copyOfRange(data, i * maxDataLen, (i + 1) * maxDataLen);
-                } else {
-                    sendData = Arrays.copyOfRange(data, i * maxDataLen, dataLen);
-                }
-                dataQueue.add(new BluetoothMessage(characteristic, sendData, messageType));
-            }
-        } else {
-            dataQueue.add(new BluetoothMessage(characteristic, data, messageType));
-        }
+    private void processData(BluetoothGattCharacteristic characteristic, byte[] data,
+                             BluetoothMessage.MessageType messageType, boolean isStreamMode,
+                             BluetoothMessage.Priority priority,
+                             BluetoothFuture<BluetoothDeviceData> future) {
+        // 数据超过MTU时不在这里拆包, 发送时按当前MTU从同一份数据中截取分包
+        BluetoothMessage message = new BluetoothMessage(characteristic, data, messageType);
+        message.setStreamMode(isStreamMode);
+        message.setPriority(priority);
+        message.setFuture(future);
+        enqueue(message);
     }
 
 
@@ -677,14 +1726,20 @@ public class BluetoothLEDevice {
                     "Write data failed. Can not find characteristic:" + characteristicUUID);
             return;
         }
-        processData(characteristic, data, BluetoothMessage.MessageType.WRITE);
+        processData(characteristic, data, BluetoothMessage.MessageType.WRITE, false,
+                BluetoothMessage.Priority.NORMAL, null);
     }
 
-    private void notifyDataWriteError(String deviceMac, String serviceUUID,
-                                      String characteristicUUID, String errorMessage) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onWriteError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
-        }
+    private void notifyDataWriteError(final String deviceMac, final String serviceUUID,
+                                      final String characteristicUUID, final String errorMessage) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onWriteError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
+                }
+            }
+        });
     }
 
     /**
@@ -706,7 +1761,7 @@ public class BluetoothLEDevice {
             Log.e(TAG, "Write Characteristic is null");
             return;
         }
-        dataQueue.add(new BluetoothMessage(notifyCharacteristic, data, BluetoothMessage.MessageType.READ));
+        enqueue(new BluetoothMessage(notifyCharacteristic, data, BluetoothMessage.MessageType.READ));
     }
 
     /**
@@ -756,62 +1811,166 @@ public class BluetoothLEDevice {
             return;
         }
         setCharacteristicNotification(characteristic, true);
-        dataQueue.add(new BluetoothMessage(characteristic, data, BluetoothMessage.MessageType.READ));
+        enqueue(new BluetoothMessage(characteristic, data, BluetoothMessage.MessageType.READ));
     }
 
-    private void notifyDataReadError(String deviceMac, String serviceUUID,
-                                     String characteristicUUID, String errorMessage) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onReadError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
+    /**
+     * 异步读特征数据, 返回的BluetoothFuture在onCharacteristicRead回调成功后完成
+     * 读失败、超时或设备断开时失败, 失败原因见BluetoothOperationException
+     *
+     * @param serviceUUID        服务id
+     * @param characteristicUUID 特征id
+     * @return
+     */
+    public BluetoothFuture<BluetoothDeviceData> readDataAsync(String serviceUUID, String characteristicUUID) {
+        BluetoothFuture<BluetoothDeviceData> future = new BluetoothFuture<>();
+        if (!isConnected()) {
+            Log.e(TAG, "Device is not connected.");
+            failFuture(future, new BluetoothOperationException(
+                    BluetoothOperationException.REASON_NOT_CONNECTED, "Device is not connected."));
+            return future;
+        }
+        BluetoothGattService service = bluetoothGatt.getService(UUID.fromString(serviceUUID));
+        BluetoothGattCharacteristic characteristic = null == service ? null
+                : service.getCharacteristic(UUID.fromString(characteristicUUID));
+        if (null == characteristic) {
+            Log.e(TAG, "Can not find characteristic:" + characteristicUUID);
+            failFuture(future, new BluetoothOperationException(
+                    BluetoothOperationException.REASON_NOT_FOUND,
+                    "Can not find characteristic:" + serviceUUID + "/" + characteristicUUID));
+            return future;
         }
+        BluetoothMessage message = new BluetoothMessage(characteristic, null,
+                BluetoothMessage.MessageType.READ);
+        message.setFuture(future);
+        enqueue(message);
+        return future;
     }
 
-    private void notifyConnectStateChange(String deviceMac, int oldState, int newState) {
-        for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-            stateListener.onStateChange(deviceMac, oldState, newState);
-        }
+    private void notifyDataReadError(final String deviceMac, final String serviceUUID,
+                                     final String characteristicUUID, final String errorMessage) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onReadError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceReady(String deviceMac) {
-        for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-            stateListener.onReady(deviceMac);
-        }
+    private void notifyConnectStateChange(final String deviceMac,
+                                  final int oldState,
+                                  final int newState) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onStateChange(deviceMac, oldState, newState);
+                }
+            }
+        });
     }
 
-    private void notifyDiscoverServicesError(String deviceMac, String errorMessage) {
-        for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-            stateListener.onDiscoverServicesError(deviceMac, errorMessage);
-        }
+    private void notifyDeviceReady(final String deviceMac) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onReady(deviceMac);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceConnectTimeout(String deviceMac) {
-        synchronized (deviceStateListeners) {
-            for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-                stateListener.onConnectTimeout(deviceMac);
+    private void notifyDiscoverServicesError(final String deviceMac, final String errorMessage) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onDiscoverServicesError(deviceMac, errorMessage);
+                }
             }
-        }
+        });
     }
 
-    private void notifyDeviceDataRead(BluetoothDeviceData deviceData, int state) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onDataRead(deviceData, state);
-        }
+    private void notifyDeviceConnectTimeout(final String deviceMac) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onConnectTimeout(deviceMac);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceDataWrite(BluetoothDeviceData deviceData, int state) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onDataWrite(deviceData, state);
-        }
+    private void notifyDeviceDataRead(final BluetoothDeviceData deviceData, final int state) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onDataRead(deviceData, state);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceDataChanged(BluetoothDeviceData deviceData) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            try {
-                dataCallback.onDataChanged(deviceData);
-            } catch (Exception e) {
-                Log.e(TAG, "notifyDeviceDataChanged error:" + e.getMessage(), e);
+    private void notifyDeviceDataWrite(final BluetoothDeviceData deviceData, final int state) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onDataWrite(deviceData, state);
+                }
             }
-        }
+        });
+    }
+
+    private void notifyDeviceDataChanged(final BluetoothDeviceData deviceData) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    try {
+                        dataCallback.onDataChanged(deviceData);
+                    } catch (Exception e) {
+                        Log.e(TAG, "notifyDeviceDataChanged error:" + e.getMessage(), e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void notifySubscribers(final BluetoothNotifyCallback[] notifyCallbacks,
+                                   final BluetoothDeviceData deviceData) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothNotifyCallback notifyCallback : notifyCallbacks) {
+                    try {
+                        notifyCallback.onDataChanged(deviceData);
+                    } catch (Exception e) {
+                        Log.e(TAG, "notifySubscribers error:" + e.getMessage(), e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void notifyDataBatch(final BluetoothDataBatch batch) {
+        callbackDispatcher.dispatch(getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDataBatchCallback batchCallback : dataBatchCallbacks.getListeners()) {
+                    try {
+                        batchCallback.onDataBatch(batch);
+                    } catch (Exception e) {
+                        Log.e(TAG, "notifyDataBatch error:" + e.getMessage(), e);
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -884,25 +2043,7 @@ public class BluetoothLEDevice {
      * @param characteristic 需要设置的特性
      */
     public void setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean isEnable) {
-        if (null == bluetoothGatt || null == characteristic) {
-            Log.e(TAG, "BluetoothGatt or BluetoothGattCharacteristic is null.");
-            return;
-        }
-
-        // 开启通知特性通知功能
-        if (bluetoothGatt.setCharacteristicNotification(characteristic, isEnable)) {
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(DEFAULT_DESCRIPTOR_UUID));
-            if (null == descriptor) {
-                Log.e(TAG, "Set characteristic descriptor failed. descriptor is null");
-                return;
-            }
-            descriptor.setValue(isEnable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
-                    : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-            boolean result = bluetoothGatt.writeDescriptor(descriptor);
-            Log.e(TAG, "Write descriptor result:" + result);
-        } else {
-            Log.e(TAG, "Set Characteristic Notification failed.");
-        }
+        setNotification(characteristic, isEnable, false);
     }
 
     /**
@@ -937,27 +2078,116 @@ public class BluetoothLEDevice {
      * @param characteristic 需要设置的特性
      */
     public void setCharacteristicIndication(BluetoothGattCharacteristic characteristic, boolean isEnable) {
+        setNotification(characteristic, isEnable, true);
+    }
+
+    /**
+     * 开启或关闭特征的通知, 写描述符通过队列串行执行, 避免和正在进行的读写操作冲突
+     *
+     * @param characteristic 特征
+     * @param isEnable       是否开启
+     * @param isIndication   开启时使用indication还是notification
+     * @return 写描述符的结果
+     */
+    private BluetoothFuture<BluetoothDeviceData> setNotification(BluetoothGattCharacteristic characteristic,
+                                                                 boolean isEnable, boolean isIndication) {
+        BluetoothFuture<BluetoothDeviceData> future = new BluetoothFuture<>();
         if (null == bluetoothGatt || null == characteristic) {
-            Log.e(TAG, "Set characteristic indication.BluetoothGatt or BluetoothGattCharacteristic is null.");
-            return;
+            Log.e(TAG, "BluetoothGatt or BluetoothGattCharacteristic is null.");
+            failFuture(future, new BluetoothOperationException(BluetoothOperationException.REASON_NOT_FOUND,
+                    "BluetoothGatt or BluetoothGattCharacteristic is null."));
+            return future;
         }
 
         // 开启通知特性通知功能
-        if (bluetoothGatt.setCharacteristicNotification(characteristic, isEnable)) {
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(DEFAULT_DESCRIPTOR_UUID));
-            if (null == descriptor) {
-                Log.e(TAG, "Set characteristic descriptor failed. descriptor is null");
-                return;
-            }
-            descriptor.setValue(isEnable ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
-                    : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-            boolean result = bluetoothGatt.writeDescriptor(descriptor);
-            Log.e(TAG, "Write descriptor result:" + result);
-        } else {
+        if (!bluetoothGatt.setCharacteristicNotification(characteristic, isEnable)) {
             Log.e(TAG, "Set Characteristic Notification failed.");
+            failFuture(future, new BluetoothOperationException(BluetoothOperationException.REASON_REJECTED,
+                    "Set characteristic notification failed."));
+            return future;
+        }
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(DEFAULT_DESCRIPTOR_UUID));
+        if (null == descriptor) {
+            Log.e(TAG, "Set characteristic descriptor failed. descriptor is null");
+            failFuture(future, new BluetoothOperationException(BluetoothOperationException.REASON_NOT_FOUND,
+                    "Characteristic descriptor is null."));
+            return future;
+        }
+        byte[] value;
+        if (!isEnable) {
+            value = BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+        } else if (isIndication) {
+            value = BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+        } else {
+            value = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
         }
+        writeDescriptor(descriptor, value, future);
+        return future;
     }
 
+    /**
+     * 写描述符, 加入操作队列等待执行
+     *
+     * @param descriptor 描述符
+     * @param value      描述符的值
+     * @param future     写描述符的结果
+     */
+    private void writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value,
+                                 BluetoothFuture<BluetoothDeviceData> future) {
+        BluetoothMessage message = new BluetoothMessage(descriptor, value);
+        message.setFuture(future);
+        enqueue(message);
+    }
+
+    /**
+     * 读取设备信号强度, 加入操作队列等待执行
+     *
+     * @param rssiCallback 结果回调
+     * @return 设备未连接时返回false
+     */
+    public boolean readRemoteRssi(BluetoothRssiCallback rssiCallback) {
+        if (!isConnected()) {
+            Log.e(TAG, "Read rssi failed. Device is not connected.");
+            return false;
+        }
+        enqueue(new BluetoothMessage(rssiCallback));
+        return true;
+    }
+
+    /**
+     * 连接中重新协商MTU, 加入操作队列等待执行, 不会重新发现服务
+     * 协商成功后之后发送的分包(包括队列中未发送完的数据)按新的MTU拆包
+     * 只对本次连接有效, 重连时仍使用BluetoothOptions中的MTU
+     *
+     * @param mtu         请求的MTU, 23~517
+     * @param mtuCallback 结果回调, 可以为null
+     * @return 设备未连接或MTU超出范围时返回false
+     */
+    public boolean requestMtu(int mtu, BluetoothMtuCallback mtuCallback) {
+        if (!isConnected()) {
+            Log.e(TAG, "Request mtu failed. Device is not connected.");
+            return false;
+        }
+        if (mtu < BluetoothOptions.DEFAULT_MTU || mtu > BluetoothOptions.MAX_MTU) {
+            Log.e(TAG, "Request mtu failed. Invalid mtu:" + mtu);
+            return false;
+        }
+        enqueue(new BluetoothMessage(mtu, mtuCallback));
+        return true;
+    }
+
+    /**
+     * 获取本次连接协商后的MTU, 协商前或协商失败时为默认的23
+     *
+     * @return
+     */
+    public int getMtu() {
+        return negotiatedMtu;
+    }
+
+    private int getMaxDataLen() {
+        return negotiatedMtu - 3;
+    }
 
     public boolean isConnected() {
         return connectState == BluetoothProfile.STATE_CONNECTED;
@@ -988,35 +2218,144 @@ public class BluetoothLEDevice {
     }
 
     public void addDeviceStateListener(BluetoothDeviceStateListener deviceStateListener) {
-        if (!deviceStateListeners.contains(deviceStateListener)) {
-            deviceStateListeners.add(deviceStateListener);
-        }
+        deviceStateListeners.add(deviceStateListener);
     }
 
     public void removeDeviceStateListener(BluetoothDeviceStateListener deviceStateListener) {
-        Iterator<BluetoothDeviceStateListener> iterator = deviceStateListeners.iterator();
-        while (iterator.hasNext()) {
-            if (deviceStateListener == iterator.next()) {
-                iterator.remove();
-                break;
-            }
-        }
+        deviceStateListeners.remove(deviceStateListener);
     }
 
     public void addDeviceDataCallback(BluetoothDeviceDataCallback dataCallback) {
-        if (!deviceDataCallbacks.contains(dataCallback)) {
-            deviceDataCallbacks.add(dataCallback);
-        }
+        deviceDataCallbacks.add(dataCallback);
     }
 
     public void removeDeviceDataCallback(BluetoothDeviceDataCallback dataCallback) {
-        Iterator<BluetoothDeviceDataCallback> iterator = deviceDataCallbacks.iterator();
-        while (iterator.hasNext()) {
-            if (dataCallback == iterator.next()) {
-                iterator.remove();
-                break;
-            }
+        deviceDataCallbacks.remove(dataCallback);
+    }
+
+    /**
+     * 订阅指定特征的通知数据, 只在该特征有通知时回调, 不需要在回调中按特征id过滤
+     * 订阅不会开启特征的通知, 需要另外通过setCharacteristicNotification开启
+     * 通过addDeviceDataCallback添加的回调仍然会收到所有特征的通知数据
+     *
+     * @param serviceUUID        服务id
+     * @param characteristicUUID 特征id
+     * @param notifyCallback     回调
+     */
+    public void subscribe(String serviceUUID, String characteristicUUID, BluetoothNotifyCallback notifyCallback) {
+        if (null == notifyCallback) {
+            return;
+        }
+        subscriptionRouter.subscribe(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID),
+                notifyCallback);
+    }
+
+    /**
+     * 取消订阅指定特征的通知数据
+     *
+     * @param serviceUUID        服务id
+     * @param characteristicUUID 特征id
+     * @param notifyCallback     回调
+     */
+    public void unsubscribe(String serviceUUID, String characteristicUUID, BluetoothNotifyCallback notifyCallback) {
+        subscriptionRouter.unsubscribe(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID),
+                notifyCallback);
+    }
+
+    /**
+     * 取消回调订阅的所有特征
+     *
+     * @param notifyCallback 回调
+     */
+    public void unsubscribe(BluetoothNotifyCallback notifyCallback) {
+        subscriptionRouter.unsubscribeAll(notifyCallback);
+    }
+
+    /**
+     * 创建所有特征通知数据的发布者, 订阅者通过request(n)按处理能力请求数据
+     * 订阅者处理不过来时按overflowStrategy处理, 丢弃数量通过getDroppedCount获取, 内存占用不超过缓冲大小
+     * 发布者在有订阅者时才接收数据, 可以被多个订阅者共用, 设备destroy时所有订阅收到onComplete
+     * 所有订阅者取消或结束后设备不再持有发布者
+     * 数据在设备的回调线程(BluetoothOptions.CallbackDispatchMode)或request的调用线程中推送
+     *
+     * @param overflowStrategy 订阅者缓冲已满时的处理策略
+     * @param bufferSize       每个订阅者的缓冲条数
+     * @return
+     */
+    public FlowPublisher<BluetoothDeviceData> publishNotifications(OverflowStrategy overflowStrategy, int bufferSize) {
+        return createNotificationPublisher(null, null, overflowStrategy, bufferSize);
+    }
+
+    /**
+     * 创建指定特征通知数据的发布者
+     *
+     * @param serviceUUID        服务id
+     * @param characteristicUUID 特征id
+     * @param overflowStrategy   订阅者缓冲已满时的处理策略
+     * @param bufferSize         每个订阅者的缓冲条数
+     * @return
+     * @see #publishNotifications(OverflowStrategy, int)
+     */
+    public FlowPublisher<BluetoothDeviceData> publishNotifications(String serviceUUID, String characteristicUUID,
+                                                                   OverflowStrategy overflowStrategy, int bufferSize) {
+        return createNotificationPublisher(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID),
+                overflowStrategy, bufferSize);
+    }
+
+    private FlowPublisher<BluetoothDeviceData> createNotificationPublisher(final UUID serviceUUID,
+                                                                           final UUID characteristicUUID,
+                                                                           OverflowStrategy overflowStrategy,
+                                                                           int bufferSize) {
+        FlowPublisher<BluetoothDeviceData> publisher =
+                new FlowPublisher<BluetoothDeviceData>(overflowStrategy, bufferSize) {
+                    private final BluetoothNotifyCallback notifyCallback = new BluetoothNotifyCallback() {
+                        @Override
+                        public void onDataChanged(BluetoothDeviceData deviceData) {
+                            emit(deviceData);
+                        }
+                    };
+
+                    @Override
+                    protected void onFirstSubscriber() {
+                        notificationPublishers.add(this);
+                        if (null == serviceUUID) {
+                            publisherCallbacks.add(notifyCallback);
+                        } else {
+                            subscriptionRouter.subscribe(serviceUUID, characteristicUUID, notifyCallback);
+                        }
+                        // 先加入再检查, 与destroy并发时至少有一方结束发布者
+                        if (isDestroyed) {
+                            complete();
+                        }
+                    }
+
+                    @Override
+                    protected void onNoSubscribers() {
+                        if (null == serviceUUID) {
+                            publisherCallbacks.remove(notifyCallback);
+                        } else {
+                            subscriptionRouter.unsubscribe(serviceUUID, characteristicUUID, notifyCallback);
+                        }
+                        notificationPublishers.remove(this);
+                    }
+                };
+        return publisher;
+    }
+
+    /**
+     * 添加通知数据批量回调, 需要在BluetoothOptions中开启批量回调
+     *
+     * @param batchCallback
+     */
+    public void addDataBatchCallback(BluetoothDataBatchCallback batchCallback) {
+        if (null == notificationBatcher) {
+            Log.e(TAG, "Notification batch is not enabled, batch callback will not be called.");
         }
+        dataBatchCallbacks.add(batchCallback);
+    }
+
+    public void removeDataBatchCallback(BluetoothDataBatchCallback batchCallback) {
+        dataBatchCallbacks.remove(batchCallback);
     }
 
     /**
@@ -1060,9 +2399,11 @@ public class BluetoothLEDevice {
             Log.e(TAG, String.format(Locale.ENGLISH,"Device [%s] close.", bluetoothOptions.getDeviceMac()));
 
             bluetoothGatt.disconnect();
-            BluetoothUtil.refreshGattCache(bluetoothGatt);
+            // 缓存已失效时在释放前刷新, 下一次连接重新发现服务
+            if (getGattCacheTracker().consumeRefresh(getDeviceMac())) {
+                BluetoothUtil.refreshGattCache(bluetoothGatt);
+            }
             bluetoothGatt.close();
-            BluetoothUtil.refreshGattCache(bluetoothGatt);
             if (!isRetry) {
                 isCallClose = true;
             }
@@ -1085,13 +2426,73 @@ public class BluetoothLEDevice {
         if (!isRetry) {
             stopReconnectDeviceTask();
             connectTimeoutHandler.removeCallbacksAndMessages(null);
+            timelineRecorder.finish(BluetoothConnectionTimeline.Outcome.CANCELLED);
         }
+        // 排队中的连接取消, 正在进行的连接释放名额
+        mainHandler.removeMessages(CMD_START_CONNECT);
+        BluetoothManager.getInstance().getConnectScheduler().cancel(this);
         stopDataService();
-        dataQueue.clear();
         connectState = BluetoothProfile.STATE_DISCONNECTED;
         isReady = false;
     }
 
+    /**
+     * 获取待发送队列中读写数据的消息数(一次writeData/readData为一条消息)
+     * 设备断开(包括连接失败)时队列中的消息被丢弃, 不会在重连后发送
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return dataQueue.size();
+    }
+
+    /**
+     * 获取待发送队列中读写数据的字节数
+     *
+     * @return
+     */
+    public long getQueueByteSize() {
+        return dataQueue.byteSize();
+    }
+
+    /**
+     * 设置通知数据抓包日志, 收到的原始通知(帧解码前)按接收顺序写入日志
+     * 日志由调用方创建和关闭, 可以多个设备共用
+     *
+     * @param captureLog 为null时停止抓包
+     */
+    public void setCaptureLog(CaptureLogWriter captureLog) {
+        this.captureLog = captureLog;
+    }
+
+    /**
+     * 获取收发统计快照: 写入和通知的字节数、包数, 排队时间, 写回调延迟, 通知间隔和抖动
+     * 统计从设备创建开始累计, 计算最近一段时间的速率时使用snapshot.since(上一次的快照)
+     *
+     * @return
+     */
+    public BluetoothMetricsSnapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * 获取最近的连接尝试(最多16次)各阶段的时间, 按时间排序, 不包括进行中的连接
+     *
+     * @return
+     */
+    public List<BluetoothConnectionTimeline> getConnectionTimelines() {
+        return timelineRecorder.getHistory();
+    }
+
+    /**
+     * 获取最后一次连接尝试各阶段的时间
+     *
+     * @return 还没有结束的连接尝试时返回null
+     */
+    public BluetoothConnectionTimeline getLastConnectionTimeline() {
+        return timelineRecorder.getLast();
+    }
+
     public BluetoothOptions getBluetoothOptions() {
         return bluetoothOptions;
     }
@@ -1100,7 +2501,14 @@ public class BluetoothLEDevice {
      * 销毁实例
      */
     public void destroy() {
+        isDestroyed = true;
         close();
         context.unregisterReceiver(receiver);
+        for (FlowPublisher<BluetoothDeviceData> publisher : notificationPublishers.getListeners()) {
+            publisher.complete();
+        }
+        notificationPublishers.clear();
+        subscriptionRouter.clear();
+        callbackDispatcher.shutdown();
     }
 }
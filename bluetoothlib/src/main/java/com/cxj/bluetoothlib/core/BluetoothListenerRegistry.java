@@ -0,0 +1,93 @@
+package com.cxj.bluetoothlib.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/13
+ * @description 写时复制的监听列表
+ * 添加、删除时复制出新数组并通过CAS替换, 不加锁
+ * 回调时通过getListeners获取当前数组按下标遍历, 遍历期间的添加、删除不影响本次回调, 不会抛出ConcurrentModificationException
+ */
+class BluetoothListenerRegistry<T> {
+    private final AtomicReference<T[]> listeners;
+
+    /**
+     * @param empty 空数组, 用于创建对应类型的数组
+     */
+    BluetoothListenerRegistry(T[] empty) {
+        listeners = new AtomicReference<>(empty);
+    }
+
+    /**
+     * 添加监听, 已存在时不重复添加
+     *
+     * @param listener
+     * @return 是否添加成功
+     */
+    boolean add(T listener) {
+        if (null == listener) {
+            return false;
+        }
+        while (true) {
+            T[] current = listeners.get();
+            if (indexOf(current, listener) >= 0) {
+                return false;
+            }
+            T[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = listener;
+            if (listeners.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 删除监听
+     *
+     * @param listener
+     * @return 是否删除成功
+     */
+    boolean remove(T listener) {
+        while (true) {
+            T[] current = listeners.get();
+            int index = indexOf(current, listener);
+            if (index < 0) {
+                return false;
+            }
+            T[] updated = Arrays.copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (listeners.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    void clear() {
+        T[] current = listeners.get();
+        listeners.set(Arrays.copyOf(current, 0));
+    }
+
+    /**
+     * 获取当前所有监听, 返回的数组不会再被修改, 不要修改返回的数组
+     *
+     * @return
+     */
+    T[] getListeners() {
+        return listeners.get();
+    }
+
+    boolean isEmpty() {
+        return listeners.get().length == 0;
+    }
+
+    private int indexOf(T[] array, T listener) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -2,7 +2,12 @@ package com.cxj.bluetoothlib.core;
 
 import android.util.Log;
 
+import com.cxj.bluetoothlib.bean.BluetoothConnectionStats;
+import com.cxj.bluetoothlib.bean.BluetoothConnectionTimeline;
 import com.cxj.bluetoothlib.bean.BluetoothDeviceData;
+import com.cxj.bluetoothlib.bean.BluetoothMessage;
+import com.cxj.bluetoothlib.bean.BluetoothMetricsSnapshot;
+import com.cxj.bluetoothlib.bean.BluetoothOptions;
 import com.cxj.bluetoothlib.listener.BluetoothDeviceDataCallback;
 import com.cxj.bluetoothlib.listener.BluetoothDeviceStateListener;
 
@@ -10,6 +15,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author chenxiaojin
@@ -22,10 +33,24 @@ public class BluetoothManager implements BluetoothDeviceStateListener, Bluetooth
     private static BluetoothManager bluetoothManager;
 
     private Map<String, BluetoothLEDevice> devicesMap = new HashMap<>();
-    private List<BluetoothDeviceStateListener> deviceStateListeners = new ArrayList<>();
-    private List<BluetoothDeviceDataCallback> deviceDataCallbacks = new ArrayList<>();
-
-    public static BluetoothManager getInstance() {
+    // 监听在主线程添加删除, 在设备回调线程遍历, 使用写时复制的列表
+    private final BluetoothListenerRegistry<BluetoothDeviceStateListener> deviceStateListeners =
+            new BluetoothListenerRegistry<>(new BluetoothDeviceStateListener[0]);
+    private final BluetoothListenerRegistry<BluetoothDeviceDataCallback> deviceDataCallbacks =
+            new BluetoothListenerRegistry<>(new BluetoothDeviceDataCallback[0]);
+    // 所有设备共用的发送线程, 设备队列可写时才提交发送任务
+    private ScheduledExecutorService sendScheduler;
+    // 设备SHARED回调方式共用的回调线程, 按设备mac分配, 同一设备的回调固定在一个线程中
+    private ExecutorService[] callbackExecutors;
+    // 转发给管理器监听的回调方式, 默认在设备回调线程中直接转发
+    private volatile BluetoothCallbackDispatcher callbackDispatcher =
+            new BluetoothCallbackDispatcher(BluetoothOptions.CallbackDispatchMode.INLINE, "BluetoothManagerCallback");
+    // 所有设备共用的连接调度
+    private final BluetoothConnectScheduler connectScheduler = new BluetoothConnectScheduler();
+    // 各设备的GATT缓存状态
+    private final BluetoothGattCacheTracker gattCacheTracker = new BluetoothGattCacheTracker();
+
+    public synchronized static BluetoothManager getInstance() {
         if (null == bluetoothManager) {
             bluetoothManager = new BluetoothManager();
         }
@@ -142,6 +167,23 @@ public class BluetoothManager implements BluetoothDeviceStateListener, Bluetooth
 
     }
 
+    /**
+     * 按指定优先级写数据, 高优先级的数据可以在低优先级数据的分包之间插队发送
+     *
+     * @param deviceMac
+     * @param data
+     * @param priority
+     */
+    public void writeData(String deviceMac, byte[] data, BluetoothMessage.Priority priority) {
+        BluetoothLEDevice device = devicesMap.get(deviceMac);
+        if (null == device) {
+            notifyDataWriteError(deviceMac, null, null,
+                    "Can not find device:" + deviceMac);
+            return;
+        }
+        device.writeData(data, priority);
+    }
+
     /**
      * 通过指定服务、特性写数据
      * 注意:
@@ -195,6 +237,33 @@ public class BluetoothManager implements BluetoothDeviceStateListener, Bluetooth
         return devicesMap.get(deviceMac);
     }
 
+    /**
+     * 获取所有设备收发统计的汇总, 各设备的快照通过getDevice(mac).getMetricsSnapshot()获取
+     *
+     * @return 没有设备时返回null
+     */
+    public BluetoothMetricsSnapshot getMetricsSnapshot() {
+        List<BluetoothMetricsSnapshot> snapshots = new ArrayList<>();
+        for (BluetoothLEDevice device : getAllDevices()) {
+            snapshots.add(device.getMetricsSnapshot());
+        }
+        return BluetoothMetricsSnapshot.merge(snapshots);
+    }
+
+    /**
+     * 获取所有设备最近连接尝试的阶段耗时统计, 如stats.getPercentile(Phase.READY, 90)
+     * 各设备的连接尝试通过getDevice(mac).getConnectionTimelines()获取
+     *
+     * @return
+     */
+    public BluetoothConnectionStats getConnectionStats() {
+        List<BluetoothConnectionTimeline> timelines = new ArrayList<>();
+        for (BluetoothLEDevice device : getAllDevices()) {
+            timelines.addAll(device.getConnectionTimelines());
+        }
+        return new BluetoothConnectionStats(timelines);
+    }
+
     /**
      * 断连设备
      *
@@ -318,60 +387,105 @@ public class BluetoothManager implements BluetoothDeviceStateListener, Bluetooth
         notifyDataReadError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
     }
 
-    private void notifyDataReadError(String deviceMac, String serviceUUID,
-                                     String characteristicUUID, String errorMessage) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onReadError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
-        }
+    private void notifyDataReadError(final String deviceMac, final String serviceUUID,
+                                     final String characteristicUUID, final String errorMessage) {
+        callbackDispatcher.dispatch(deviceMac, new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onReadError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
+                }
+            }
+        });
     }
 
-    private void notifyConnectStateChange(String deviceMac, int oldState, int newState) {
-        for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-            stateListener.onStateChange(deviceMac, oldState, newState);
-        }
+    private void notifyConnectStateChange(final String deviceMac, final int oldState, final int newState) {
+        callbackDispatcher.dispatch(deviceMac, new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onStateChange(deviceMac, oldState, newState);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceReady(String deviceMac) {
-        for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-            stateListener.onReady(deviceMac);
-        }
+    private void notifyDeviceReady(final String deviceMac) {
+        callbackDispatcher.dispatch(deviceMac, new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onReady(deviceMac);
+                }
+            }
+        });
     }
 
-    private void notifyDiscoverServicesError(String deviceMac, String errorMessage) {
-        for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-            stateListener.onDiscoverServicesError(deviceMac, errorMessage);
-        }
+    private void notifyDiscoverServicesError(final String deviceMac, final String errorMessage) {
+        callbackDispatcher.dispatch(deviceMac, new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onDiscoverServicesError(deviceMac, errorMessage);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceConnectTimeout(String deviceMac) {
-        for (BluetoothDeviceStateListener stateListener : deviceStateListeners) {
-            stateListener.onConnectTimeout(deviceMac);
-        }
+    private void notifyDeviceConnectTimeout(final String deviceMac) {
+        callbackDispatcher.dispatch(deviceMac, new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceStateListener stateListener : deviceStateListeners.getListeners()) {
+                    stateListener.onConnectTimeout(deviceMac);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceDataRead(BluetoothDeviceData deviceData, int state) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onDataRead(deviceData, state);
-        }
+    private void notifyDeviceDataRead(final BluetoothDeviceData deviceData, final int state) {
+        callbackDispatcher.dispatch(deviceData.getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onDataRead(deviceData, state);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceDataWrite(BluetoothDeviceData deviceData, int state) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onDataWrite(deviceData, state);
-        }
+    private void notifyDeviceDataWrite(final BluetoothDeviceData deviceData, final int state) {
+        callbackDispatcher.dispatch(deviceData.getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onDataWrite(deviceData, state);
+                }
+            }
+        });
     }
 
-    private void notifyDeviceDataChanged(BluetoothDeviceData deviceData) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onDataChanged(deviceData);
-        }
+    private void notifyDeviceDataChanged(final BluetoothDeviceData deviceData) {
+        callbackDispatcher.dispatch(deviceData.getDeviceMac(), new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onDataChanged(deviceData);
+                }
+            }
+        });
     }
 
-    private void notifyDataWriteError(String deviceMac, String serviceUUID,
-                                      String characteristicUUID, String errorMessage) {
-        for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks) {
-            dataCallback.onWriteError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
-        }
+    private void notifyDataWriteError(final String deviceMac, final String serviceUUID,
+                                      final String characteristicUUID, final String errorMessage) {
+        callbackDispatcher.dispatch(deviceMac, new Runnable() {
+            @Override
+            public void run() {
+                for (BluetoothDeviceDataCallback dataCallback : deviceDataCallbacks.getListeners()) {
+                    dataCallback.onWriteError(deviceMac, serviceUUID, characteristicUUID, errorMessage);
+                }
+            }
+        });
     }
 
 
@@ -391,6 +505,130 @@ public class BluetoothManager implements BluetoothDeviceStateListener, Bluetooth
         deviceDataCallbacks.remove(dataCallback);
     }
 
+    /**
+     * 获取所有设备共用的发送线程
+     * 每个设备只在有数据入队、操作回调或超时时提交任务, 线程数不随连接数增加
+     *
+     * @return
+     */
+    synchronized ScheduledExecutorService getSendScheduler() {
+        if (null == sendScheduler || sendScheduler.isShutdown()) {
+            sendScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BluetoothSender");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sendScheduler;
+    }
+
+    /**
+     * 设置转发给管理器监听的回调方式, 默认INLINE(在设备的回调线程中直接转发)
+     * SERIAL模式下所有设备的事件在一个线程中按顺序回调, SHARED模式下按设备分配到共用的回调线程
+     *
+     * @param dispatchMode
+     */
+    public void setCallbackDispatchMode(BluetoothOptions.CallbackDispatchMode dispatchMode) {
+        BluetoothCallbackDispatcher oldDispatcher = callbackDispatcher;
+        callbackDispatcher = new BluetoothCallbackDispatcher(dispatchMode, "BluetoothManagerCallback");
+        oldDispatcher.shutdown();
+    }
+
+    /**
+     * 设置最大同时连接数, 超出的连接请求排队, 轮到时才发起连接, 连接超时从发起时开始计算
+     * 默认不限制, 同时连接较多设备时建议设置为1~3
+     *
+     * @param maxConcurrentConnects 小于等于0时不限制
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        connectScheduler.setMaxConcurrentConnects(maxConcurrentConnects);
+    }
+
+    /**
+     * 设置连接排队方式, 默认FIFO
+     * PRIORITY模式下按BluetoothOptions.getConnectPriority()从大到小连接, 相同优先级先进先出
+     *
+     * @param queueMode
+     */
+    public void setConnectQueueMode(BluetoothOptions.ConnectQueueMode queueMode) {
+        connectScheduler.setQueueMode(queueMode);
+    }
+
+    /**
+     * 排队等待连接的设备数
+     *
+     * @return
+     */
+    public int getPendingConnectCount() {
+        return connectScheduler.getPendingCount();
+    }
+
+    /**
+     * 正在连接的设备数
+     *
+     * @return
+     */
+    public int getActiveConnectCount() {
+        return connectScheduler.getActiveCount();
+    }
+
+    BluetoothConnectScheduler getConnectScheduler() {
+        return connectScheduler;
+    }
+
+    /**
+     * 标记设备的GATT缓存已失效, 下一次连接时刷新缓存并重新发现服务
+     * 一般不需要调用, 发现服务失败、服务变更或缺少特征时会自动标记, 用于设备固件升级等服务可能变化的场景
+     *
+     * @param deviceMac 设备mac
+     */
+    public void invalidateGattCache(String deviceMac) {
+        gattCacheTracker.invalidate(deviceMac, "invalidate by user");
+    }
+
+    /**
+     * 获取设备上一次发现的服务
+     *
+     * @param deviceMac 设备mac
+     * @return 服务id -> 特征id, 没有发现过时返回空
+     */
+    public Map<UUID, Set<UUID>> getDiscoveredServices(String deviceMac) {
+        return gattCacheTracker.getDiscoveredServices(deviceMac);
+    }
+
+    BluetoothGattCacheTracker getGattCacheTracker() {
+        return gattCacheTracker;
+    }
+
+    /**
+     * 获取设备共用的回调线程, 同一设备总是分配到同一线程, 保证设备内的回调顺序
+     *
+     * @param deviceMac 设备mac
+     * @return
+     */
+    synchronized ExecutorService getCallbackExecutor(String deviceMac) {
+        if (null == callbackExecutors) {
+            int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+            callbackExecutors = new ExecutorService[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                final String threadName = "BluetoothCallback-shared-" + i;
+                callbackExecutors[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        int hash = null == deviceMac ? 0 : deviceMac.hashCode();
+        return callbackExecutors[(hash & 0x7FFFFFFF) % callbackExecutors.length];
+    }
+
     public void destroy() {
         for (BluetoothLEDevice device : devicesMap.values()) {
             device.removeDeviceDataCallback(this);
@@ -399,5 +637,19 @@ public class BluetoothManager implements BluetoothDeviceStateListener, Bluetooth
         devicesMap.clear();
         deviceDataCallbacks.clear();
         deviceStateListeners.clear();
+        callbackDispatcher.shutdown();
+        connectScheduler.clear();
+        synchronized (this) {
+            if (null != sendScheduler) {
+                sendScheduler.shutdownNow();
+                sendScheduler = null;
+            }
+            if (null != callbackExecutors) {
+                for (ExecutorService executor : callbackExecutors) {
+                    executor.shutdown();
+                }
+                callbackExecutors = null;
+            }
+        }
     }
 }
@@ -0,0 +1,440 @@
+package com.cxj.bluetoothlib.core;
+
+import android.os.Looper;
+import android.util.Log;
+
+import com.cxj.bluetoothlib.bean.BluetoothMessage;
+import com.cxj.bluetoothlib.bean.BluetoothOptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/3
+ * @description 分优先级的待发送消息队列
+ * 每个优先级一个先进先出的通道, 按权重轮询各通道:
+ * 高优先级通道权重更大, 低优先级通道在竞争时也能按比例得到发送机会, 不会被饿死
+ * 入队和清空可以在任意线程, 出队(peek/commit/poll)只能在发送线程调用
+ * 被丢弃或发送失败的消息只做标记并立即从容量中扣除, 由发送线程peek时从通道中移除
+ * 按分包计算发送机会, 大数据的分包之间可以插入高优先级的消息
+ * 读写特征数据受BluetoothOptions配置的容量限制, 队列已满时按QueueFullPolicy处理
+ */
+class BluetoothMessageQueue {
+    private static final String TAG = "BluetoothMessageQueue";
+    // 各优先级通道的权重, 下标对应BluetoothMessage.Priority.ordinal()
+    private static final int[] LANE_WEIGHTS = {8, 4, 1};
+
+    private final BluetoothOptions bluetoothOptions;
+    private final List<Queue<BluetoothMessage>> lanes;
+    // 本轮各通道剩余的发送次数
+    private final int[] remaining = new int[LANE_WEIGHTS.length];
+    // peek选中的通道和消息, commit/poll时从该通道移除该消息
+    private int currentLane = -1;
+    private BluetoothMessage currentMessage;
+    // 队列中读写特征数据的消息数和字节数
+    private final AtomicInteger messageCount = new AtomicInteger();
+    private final AtomicLong byteCount = new AtomicLong();
+    // 因队列已满正在等待的写数据线程数
+    private volatile int blockedCount = 0;
+
+    BluetoothMessageQueue(BluetoothOptions bluetoothOptions) {
+        this.bluetoothOptions = bluetoothOptions;
+        lanes = new ArrayList<>(LANE_WEIGHTS.length);
+        for (int i = 0; i < LANE_WEIGHTS.length; i++) {
+            lanes.add(new ConcurrentLinkedQueue<BluetoothMessage>());
+        }
+        resetWeights();
+    }
+
+    /**
+     * 加入队列, 读写特征数据在队列已满时按BluetoothOptions.getQueueFullPolicy()处理
+     *
+     * @param message 消息
+     * @return 因队列已满被丢弃的消息(可能是新消息, 也可能是被挤出的旧消息), 没有丢弃时返回空列表
+     */
+    List<BluetoothMessage> add(BluetoothMessage message) {
+        message.setEnqueueTime(System.nanoTime());
+        if (!message.isDataMessage()) {
+            lanes.get(message.getPriority().ordinal()).add(message);
+            return Collections.emptyList();
+        }
+
+        int length = message.getLength();
+        List<BluetoothMessage> droppedMessages = Collections.emptyList();
+        synchronized (this) {
+            if (isFull(length)) {
+                switch (bluetoothOptions.getQueueFullPolicy()) {
+                    case BLOCK:
+                        // 主线程阻塞会导致ANR, 直接按队列已满处理
+                        if (isMainThread()) {
+                            Log.e(TAG, "Queue is full, can not block main thread. reject message.");
+                            return Collections.singletonList(message);
+                        }
+                        if (!waitForSpace(length)) {
+                            return Collections.singletonList(message);
+                        }
+                        break;
+                    case DROP_OLDEST:
+                    case DROP_NEWEST:
+                        boolean isOldest = bluetoothOptions.getQueueFullPolicy() == BluetoothOptions.QueueFullPolicy.DROP_OLDEST;
+                        droppedMessages = new ArrayList<>();
+                        while (isFull(length)) {
+                            BluetoothMessage dropped = dropQueued(isOldest);
+                            if (null == dropped) {
+                                droppedMessages.add(message);
+                                return droppedMessages;
+                            }
+                            droppedMessages.add(dropped);
+                        }
+                        break;
+                    case REJECT:
+                    default:
+                        return Collections.singletonList(message);
+                }
+            }
+            messageCount.incrementAndGet();
+            byteCount.addAndGet(length);
+            lanes.get(message.getPriority().ordinal()).add(message);
+        }
+        return droppedMessages;
+    }
+
+    /**
+     * 获取下一条待发送的消息, 不出队
+     * 已被丢弃的消息在这里移除
+     *
+     * @return 队列为空时返回null
+     */
+    BluetoothMessage peek() {
+        while (true) {
+            currentLane = selectLane();
+            if (currentLane < 0) {
+                currentMessage = null;
+                return null;
+            }
+            BluetoothMessage message = lanes.get(currentLane).peek();
+            if (null != message && (message.isDropped() || message.isFailed())) {
+                lanes.get(currentLane).poll();
+                continue;
+            }
+            currentMessage = message;
+            return message;
+        }
+    }
+
+    /**
+     * 获取下一条待发送的消息, 不出队
+     * 设备未就绪时读写特征数据不能发送, 跳过这些数据取第一条控制消息(如写描述符), 避免就绪流程被阻塞
+     *
+     * @param isDataAllowed 是否可以发送读写特征数据
+     * @return 没有可发送的消息时返回null
+     */
+    BluetoothMessage peek(boolean isDataAllowed) {
+        if (isDataAllowed) {
+            return peek();
+        }
+        for (int i = 0; i < lanes.size(); i++) {
+            for (BluetoothMessage message : lanes.get(i)) {
+                if (!message.isDataMessage() && !message.isDropped() && !message.isFailed()) {
+                    currentLane = i;
+                    currentMessage = message;
+                    return message;
+                }
+            }
+        }
+        currentLane = -1;
+        currentMessage = null;
+        return null;
+    }
+
+    /**
+     * peek返回的消息已发送一个分包, 消耗所在通道本轮的一次发送机会
+     * 消息全部发送完成后才出队, 未完成的消息留在通道头部, 保证分包顺序
+     *
+     * @param isComplete 消息是否已全部发送
+     */
+    void commit(boolean isComplete) {
+        int lane = currentLane;
+        BluetoothMessage message = currentMessage;
+        currentLane = -1;
+        currentMessage = null;
+        if (lane < 0) {
+            return;
+        }
+        if (remaining[lane] > 0) {
+            remaining[lane]--;
+        }
+        if (isComplete) {
+            onRemoved(remove(lane, message));
+        }
+    }
+
+    /**
+     * 移除peek返回的消息, 用于丢弃发送失败的消息
+     *
+     * @return 被移除的消息
+     */
+    BluetoothMessage poll() {
+        int lane = currentLane >= 0 ? currentLane : selectLane();
+        BluetoothMessage current = currentLane >= 0 ? currentMessage : null;
+        currentLane = -1;
+        currentMessage = null;
+        if (lane < 0) {
+            return null;
+        }
+        BluetoothMessage message = remove(lane, current);
+        onRemoved(message);
+        return message;
+    }
+
+    /**
+     * 从通道中移除peek选中的消息, 一般就是通道头部的消息
+     *
+     * @param lane    通道
+     * @param message peek选中的消息, 为null时移除通道头部的消息
+     * @return 被移除的消息
+     */
+    private BluetoothMessage remove(int lane, BluetoothMessage message) {
+        if (null == message || lanes.get(lane).peek() == message) {
+            return lanes.get(lane).poll();
+        }
+        return lanes.get(lane).remove(message) ? message : null;
+    }
+
+    /**
+     * 丢弃队列中的所有消息, 可以在任意线程调用, 不修改发送线程peek选中的通道和消息
+     * 未开始发送的消息标记为已丢弃, 已发送了部分分包的消息标记为失败
+     */
+    void clear() {
+        synchronized (this) {
+            for (Queue<BluetoothMessage> lane : lanes) {
+                for (BluetoothMessage message : lane) {
+                    if (message.markDropped() || message.markFailed()) {
+                        release(message);
+                    }
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * 标记已开始发送的消息为失败, 剩余分包不再发送, 由发送线程peek时从通道中移除
+     *
+     * @param message 消息
+     * @return 是否标记成功, 已失败或已出队时返回false
+     */
+    boolean fail(BluetoothMessage message) {
+        if (!message.markFailed()) {
+            return false;
+        }
+        release(message);
+        signalSpace();
+        return true;
+    }
+
+    /**
+     * 获取队列中所有未被丢弃且未失败的消息的快照
+     *
+     * @return
+     */
+    List<BluetoothMessage> getMessages() {
+        List<BluetoothMessage> messages = new ArrayList<>();
+        for (Queue<BluetoothMessage> lane : lanes) {
+            for (BluetoothMessage message : lane) {
+                if (!message.isDropped() && !message.isFailed()) {
+                    messages.add(message);
+                }
+            }
+        }
+        return messages;
+    }
+
+    boolean isEmpty() {
+        for (Queue<BluetoothMessage> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 队列中读写特征数据的消息数
+     *
+     * @return
+     */
+    int size() {
+        return messageCount.get();
+    }
+
+    /**
+     * 队列中读写特征数据的字节数
+     *
+     * @return
+     */
+    long byteSize() {
+        return byteCount.get();
+    }
+
+    /**
+     * 加入指定长度的数据后是否超出容量, 队列为空时总是允许加入, 避免单条数据超过字节上限后无法发送
+     *
+     * @param length 待加入的数据长度
+     * @return
+     */
+    private boolean isFull(int length) {
+        int count = messageCount.get();
+        if (count == 0) {
+            return false;
+        }
+        int maxMessages = bluetoothOptions.getMaxQueueMessages();
+        long maxBytes = bluetoothOptions.getMaxQueueBytes();
+        return (maxMessages > 0 && count >= maxMessages)
+                || (maxBytes > 0 && byteCount.get() + length > maxBytes);
+    }
+
+    /**
+     * 等待队列有空间, 需要在synchronized(this)中调用
+     *
+     * @param length 待加入的数据长度
+     * @return 等待超时返回false
+     */
+    private boolean waitForSpace(int length) {
+        long deadline = System.currentTimeMillis() + bluetoothOptions.getQueueBlockTimeout();
+        blockedCount++;
+        try {
+            while (isFull(length)) {
+                long waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    return false;
+                }
+                try {
+                    wait(waitTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            blockedCount--;
+        }
+    }
+
+    /**
+     * 丢弃最早(或最晚)入队且还未开始发送的读写特征数据, 需要在synchronized(this)中调用
+     * 只做标记, 由发送线程peek时从通道中移除
+     *
+     * @param isOldest true丢弃最早入队的, false丢弃最晚入队的
+     * @return 被丢弃的消息, 没有可丢弃的消息时返回null
+     */
+    private BluetoothMessage dropQueued(boolean isOldest) {
+        while (true) {
+            BluetoothMessage target = null;
+            for (Queue<BluetoothMessage> lane : lanes) {
+                for (BluetoothMessage message : lane) {
+                    if (!message.isDataMessage() || !message.isQueued()) {
+                        continue;
+                    }
+                    if (null == target || (isOldest
+                            ? message.getEnqueueTime() < target.getEnqueueTime()
+                            : message.getEnqueueTime() >= target.getEnqueueTime())) {
+                        target = message;
+                    }
+                    // 同一通道内先入队的在前面, 找最早的只需要看第一条
+                    if (isOldest) {
+                        break;
+                    }
+                }
+            }
+            if (null == target) {
+                return null;
+            }
+            // 发送线程可能刚开始发送这条消息, 标记失败时重新查找
+            if (target.markDropped()) {
+                release(target);
+                return target;
+            }
+        }
+    }
+
+    /**
+     * 是否在主线程, 测试环境中没有主线程Looper时按后台线程处理
+     *
+     * @return
+     */
+    private static boolean isMainThread() {
+        Looper mainLooper = Looper.getMainLooper();
+        return null != mainLooper && Looper.myLooper() == mainLooper;
+    }
+
+    /**
+     * 读写特征数据出队后更新容量并唤醒等待的写数据线程
+     *
+     * @param message 出队的消息
+     */
+    private void onRemoved(BluetoothMessage message) {
+        // 被丢弃或失败的消息在标记时已扣除, 与clear并发时只扣除一次
+        if (null == message || !message.markRemoved()) {
+            return;
+        }
+        release(message);
+        if (blockedCount > 0) {
+            signalSpace();
+        }
+    }
+
+    /**
+     * 从容量中扣除读写特征数据
+     *
+     * @param message 离开队列(或被标记为丢弃、失败)的消息
+     */
+    private void release(BluetoothMessage message) {
+        if (message.isDataMessage()) {
+            messageCount.decrementAndGet();
+            byteCount.addAndGet(-message.getLength());
+        }
+    }
+
+    private void signalSpace() {
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 按权重选择通道: 优先选择本轮还有发送次数的高优先级通道,
+     * 所有非空通道本轮次数都用完后开始新一轮
+     *
+     * @return 通道下标, 队列为空时返回-1
+     */
+    private int selectLane() {
+        int firstNonEmpty = -1;
+        for (int i = 0; i < lanes.size(); i++) {
+            if (lanes.get(i).isEmpty()) {
+                continue;
+            }
+            if (remaining[i] > 0) {
+                return i;
+            }
+            if (firstNonEmpty < 0) {
+                firstNonEmpty = i;
+            }
+        }
+        if (firstNonEmpty >= 0) {
+            resetWeights();
+        }
+        return firstNonEmpty;
+    }
+
+    private void resetWeights() {
+        System.arraycopy(LANE_WEIGHTS, 0, remaining, 0, LANE_WEIGHTS.length);
+    }
+}
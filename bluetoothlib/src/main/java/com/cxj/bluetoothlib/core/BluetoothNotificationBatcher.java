@@ -0,0 +1,213 @@
+package com.cxj.bluetoothlib.core;
+
+import android.util.Log;
+
+import com.cxj.bluetoothlib.bean.BluetoothDataBatch;
+import com.cxj.bluetoothlib.bean.BluetoothDeviceData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/12
+ * @description 通知数据批量收集, 每个特征单独成批, 达到条数或等待时间时交给FlushListener
+ * 每批数据直接写入最终交给回调的数组, 数组大小按上一批的数据量预估, 一般不需要扩容
+ */
+class BluetoothNotificationBatcher {
+    private static final String TAG = "BluetoothNotificationBatcher";
+    // 不限制条数时, 每批初始的条数容量
+    private static final int DEFAULT_BATCH_CAPACITY = 16;
+
+    interface FlushListener {
+        void onFlush(BluetoothDataBatch batch);
+    }
+
+    private final String deviceMac;
+    private final int maxCount;
+    private final long maxDelay;
+    private final FlushListener flushListener;
+    // 每个特征正在收集的一批数据, 通过synchronized(this)访问
+    private final Map<UUID, Batch> batches = new HashMap<>();
+
+    BluetoothNotificationBatcher(String deviceMac, int maxCount, long maxDelay, FlushListener flushListener) {
+        this.deviceMac = deviceMac;
+        this.maxCount = maxCount;
+        this.maxDelay = maxDelay;
+        this.flushListener = flushListener;
+    }
+
+    /**
+     * 添加一条通知数据, 达到条数时立即回调这一批
+     *
+     * @param characteristicUUID 特征id
+     * @param data               通知数据, 会被复制, 调用后可以修改
+     * @param timestamp          接收时间(System.nanoTime())
+     */
+    void add(UUID characteristicUUID, byte[] data, long timestamp) {
+        add(characteristicUUID, data, timestamp, false);
+    }
+
+    /**
+     * 添加一条通知数据, 并返回引用批次数组中这条数据的BluetoothDeviceData
+     * 逐条回调和批量回调共用复制到批次中的这一份数据, 不需要再复制
+     *
+     * @param characteristicUUID 特征id
+     * @param data               通知数据, 会被复制, 调用后可以修改
+     * @param timestamp          接收时间(System.nanoTime())
+     * @return
+     */
+    BluetoothDeviceData addAndShare(UUID characteristicUUID, byte[] data, long timestamp) {
+        return add(characteristicUUID, data, timestamp, true);
+    }
+
+    private BluetoothDeviceData add(UUID characteristicUUID, byte[] data, long timestamp, boolean isShared) {
+        BluetoothDeviceData deviceData = null;
+        BluetoothDataBatch fullBatch = null;
+        Batch newBatch = null;
+        synchronized (this) {
+            Batch batch = batches.get(characteristicUUID);
+            if (null == batch) {
+                batch = new Batch(characteristicUUID);
+                batches.put(characteristicUUID, batch);
+                newBatch = batch;
+            } else if (batch.isEmpty()) {
+                newBatch = batch;
+            }
+            int offset = batch.append(data, timestamp);
+            if (isShared) {
+                // 批次数组扩容或build后不会再写入已添加的数据, 这一段可以一直共享
+                deviceData = new BluetoothDeviceData(deviceMac, characteristicUUID, batch.payload, offset,
+                        null == data ? 0 : data.length);
+            }
+            if (maxCount > 0 && batch.count >= maxCount) {
+                fullBatch = batch.build();
+                newBatch = null;
+            }
+        }
+        if (null != fullBatch) {
+            flushListener.onFlush(fullBatch);
+        } else if (null != newBatch && maxDelay > 0) {
+            scheduleFlush(newBatch, newBatch.generation);
+        }
+        return deviceData;
+    }
+
+    /**
+     * 回调所有未满的批次, 用于设备断开时
+     */
+    void flushAll() {
+        List<BluetoothDataBatch> pendingBatches = new ArrayList<>();
+        synchronized (this) {
+            for (Batch batch : batches.values()) {
+                if (!batch.isEmpty()) {
+                    pendingBatches.add(batch.build());
+                }
+            }
+        }
+        for (BluetoothDataBatch batch : pendingBatches) {
+            flushListener.onFlush(batch);
+        }
+    }
+
+    /**
+     * 等待时间到后回调这一批, 期间这一批已因条数回调时不处理
+     *
+     * @param batch      批次
+     * @param generation 开始等待时的批次序号
+     */
+    private void scheduleFlush(final Batch batch, final long generation) {
+        try {
+            BluetoothManager.getInstance().getSendScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    BluetoothDataBatch timeoutBatch = null;
+                    synchronized (BluetoothNotificationBatcher.this) {
+                        if (batch.generation == generation && !batch.isEmpty()) {
+                            timeoutBatch = batch.build();
+                        }
+                    }
+                    if (null != timeoutBatch) {
+                        flushListener.onFlush(timeoutBatch);
+                    }
+                }
+            }, maxDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Schedule batch flush failed:" + e.getMessage());
+        }
+    }
+
+    /**
+     * 一个特征正在收集的数据, build后重新开始下一批
+     */
+    private class Batch {
+        private final UUID characteristicUUID;
+        private int count;
+        private long[] timestamps;
+        private int[] offsets;
+        private byte[] payload;
+        // 上一批的字节数, 用于预估下一批的数组大小
+        private int lastPayloadLength;
+        // 批次序号, 每次build后加1
+        private long generation;
+
+        Batch(UUID characteristicUUID) {
+            this.characteristicUUID = characteristicUUID;
+            reset();
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        /**
+         * 复制数据到批次数组
+         *
+         * @return 数据在批次数组中的起始位置
+         */
+        int append(byte[] data, long timestamp) {
+            int length = null == data ? 0 : data.length;
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2 + 1);
+            }
+            int offset = offsets[count];
+            if (null == payload) {
+                payload = new byte[Math.max(lastPayloadLength, length * timestamps.length)];
+            } else if (offset + length > payload.length) {
+                payload = Arrays.copyOf(payload, Math.max(payload.length * 2, offset + length));
+            }
+            if (length > 0) {
+                System.arraycopy(data, 0, payload, offset, length);
+            }
+            timestamps[count] = timestamp;
+            offsets[count + 1] = offset + length;
+            count++;
+            return offset;
+        }
+
+        BluetoothDataBatch build() {
+            BluetoothDataBatch batch = new BluetoothDataBatch(deviceMac, characteristicUUID, count,
+                    timestamps, offsets, null == payload ? new byte[0] : payload);
+            lastPayloadLength = offsets[count];
+            generation++;
+            reset();
+            return batch;
+        }
+
+        private void reset() {
+            int capacity = maxCount > 0 ? maxCount : DEFAULT_BATCH_CAPACITY;
+            count = 0;
+            timestamps = new long[capacity];
+            offsets = new int[capacity + 1];
+            // 第一条数据到达时按数据长度和上一批大小分配
+            payload = null;
+        }
+    }
+}
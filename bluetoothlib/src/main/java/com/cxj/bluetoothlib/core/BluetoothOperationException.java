@@ -0,0 +1,56 @@
+package com.cxj.bluetoothlib.core;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/8
+ * @description 蓝牙异步操作失败原因, 通过BluetoothFuture返回
+ */
+public class BluetoothOperationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    // 设备未连接
+    public static final int REASON_NOT_CONNECTED = 1;
+    // 找不到服务或特征
+    public static final int REASON_NOT_FOUND = 2;
+    // GATT接口调用失败(返回false)
+    public static final int REASON_REJECTED = 3;
+    // 设备回调的状态不是GATT_SUCCESS
+    public static final int REASON_GATT_ERROR = 4;
+    // 等待回调超时
+    public static final int REASON_TIMEOUT = 5;
+    // 操作完成前设备断开
+    public static final int REASON_DISCONNECTED = 6;
+    // 待发送队列已满
+    public static final int REASON_QUEUE_FULL = 7;
+
+    private final int reason;
+    private final int status;
+
+    public BluetoothOperationException(int reason, String message) {
+        this(reason, 0, message);
+    }
+
+    public BluetoothOperationException(int reason, int status, String message) {
+        super(message);
+        this.reason = reason;
+        this.status = status;
+    }
+
+    /**
+     * 失败原因, 见REASON_*
+     *
+     * @return
+     */
+    public int getReason() {
+        return reason;
+    }
+
+    /**
+     * 设备回调的GATT状态, 只有REASON_GATT_ERROR时有效
+     *
+     * @return
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,140 @@
+package com.cxj.bluetoothlib.core;
+
+import android.util.Log;
+
+import com.cxj.bluetoothlib.bean.BluetoothDeviceData;
+import com.cxj.bluetoothlib.listener.BluetoothResponseMatcher;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/9
+ * @description 等待响应的请求列表, 按请求顺序用匹配器查找通知数据对应的请求
+ * 请求不需要等上一个请求响应后才发送, 同时可以有多个请求在等待响应
+ * 一条通知只完成最早匹配的一个请求
+ */
+class BluetoothRequestTracker {
+    private static final String TAG = "BluetoothRequestTracker";
+
+    private final Queue<PendingRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 添加等待响应的请求, 需要在下发请求数据前调用, 避免响应先于添加到达
+     *
+     * @param request   请求数据
+     * @param matcher   响应匹配器
+     * @param future    响应结果
+     * @param timeout   等待响应的超时时间(毫秒)
+     * @param scheduler 超时检测使用的线程
+     */
+    void add(byte[] request, BluetoothResponseMatcher matcher,
+             BluetoothFuture<BluetoothDeviceData> future, long timeout,
+             ScheduledExecutorService scheduler) {
+        final PendingRequest pendingRequest = new PendingRequest(request, matcher, future);
+        pendingRequests.add(pendingRequest);
+        try {
+            pendingRequest.timeoutTask = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (pendingRequests.remove(pendingRequest)) {
+                        Log.e(TAG, "Wait response time out.");
+                        pendingRequest.future.fail(new BluetoothOperationException(
+                                BluetoothOperationException.REASON_TIMEOUT, "Wait response time out."));
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Schedule response timeout failed:" + e.getMessage());
+        }
+        // 请求被取消或发送失败时移除
+        future.addListener(new BluetoothFuture.Listener<BluetoothDeviceData>() {
+            @Override
+            public void onComplete(BluetoothFuture<BluetoothDeviceData> future) {
+                remove(pendingRequest);
+            }
+        });
+    }
+
+    /**
+     * 收到通知数据, 查找并完成最早匹配的请求
+     *
+     * @param response 通知数据
+     * @return 是否有匹配的请求
+     */
+    boolean onResponse(BluetoothDeviceData response) {
+        if (pendingRequests.isEmpty()) {
+            return false;
+        }
+        for (PendingRequest pendingRequest : pendingRequests) {
+            boolean isMatch;
+            try {
+                isMatch = pendingRequest.matcher.isMatch(pendingRequest.request, response);
+            } catch (Exception e) {
+                Log.e(TAG, "Match response error:" + e.getMessage(), e);
+                continue;
+            }
+            // 可能同时超时或被取消, 移除成功才算匹配
+            if (isMatch && remove(pendingRequest)) {
+                pendingRequest.future.complete(response);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 所有等待中的请求都失败, 用于设备断开或关闭
+     *
+     * @param exception 失败原因
+     */
+    void failAll(BluetoothOperationException exception) {
+        Iterator<PendingRequest> iterator = pendingRequests.iterator();
+        while (iterator.hasNext()) {
+            PendingRequest pendingRequest = iterator.next();
+            if (remove(pendingRequest)) {
+                pendingRequest.future.fail(exception);
+            }
+        }
+    }
+
+    /**
+     * 等待响应的请求数
+     *
+     * @return
+     */
+    int size() {
+        return pendingRequests.size();
+    }
+
+    private boolean remove(PendingRequest pendingRequest) {
+        if (!pendingRequests.remove(pendingRequest)) {
+            return false;
+        }
+        ScheduledFuture<?> timeoutTask = pendingRequest.timeoutTask;
+        if (null != timeoutTask) {
+            timeoutTask.cancel(false);
+        }
+        return true;
+    }
+
+    private static class PendingRequest {
+        private final byte[] request;
+        private final BluetoothResponseMatcher matcher;
+        private final BluetoothFuture<BluetoothDeviceData> future;
+        private volatile ScheduledFuture<?> timeoutTask;
+
+        PendingRequest(byte[] request, BluetoothResponseMatcher matcher,
+                       BluetoothFuture<BluetoothDeviceData> future) {
+            this.request = request;
+            this.matcher = matcher;
+            this.future = future;
+        }
+    }
+}
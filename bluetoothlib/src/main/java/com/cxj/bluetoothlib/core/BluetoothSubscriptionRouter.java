@@ -0,0 +1,134 @@
+package com.cxj.bluetoothlib.core;
+
+import com.cxj.bluetoothlib.listener.BluetoothNotifyCallback;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/14
+ * @description 按服务、特征索引的通知订阅表
+ * 订阅、取消订阅时复制出新的索引整体替换, 查找时不加锁, 只需要两次HashMap查找
+ */
+class BluetoothSubscriptionRouter {
+    private static final BluetoothNotifyCallback[] EMPTY_CALLBACKS = new BluetoothNotifyCallback[0];
+
+    // 服务id -> 特征id -> 订阅回调, 发布后不再修改
+    private volatile Map<UUID, Map<UUID, BluetoothNotifyCallback[]>> index = Collections.emptyMap();
+
+    /**
+     * 订阅特征, 同一回调重复订阅同一特征时只回调一次
+     *
+     * @param serviceUUID        服务id
+     * @param characteristicUUID 特征id
+     * @param callback           回调
+     */
+    synchronized void subscribe(UUID serviceUUID, UUID characteristicUUID, BluetoothNotifyCallback callback) {
+        BluetoothNotifyCallback[] callbacks = getCallbacks(serviceUUID, characteristicUUID);
+        for (BluetoothNotifyCallback existCallback : callbacks) {
+            if (existCallback == callback) {
+                return;
+            }
+        }
+        BluetoothNotifyCallback[] updated = Arrays.copyOf(callbacks, callbacks.length + 1);
+        updated[callbacks.length] = callback;
+        publish(serviceUUID, characteristicUUID, updated);
+    }
+
+    /**
+     * 取消订阅特征
+     *
+     * @param serviceUUID        服务id
+     * @param characteristicUUID 特征id
+     * @param callback           回调
+     */
+    synchronized void unsubscribe(UUID serviceUUID, UUID characteristicUUID, BluetoothNotifyCallback callback) {
+        BluetoothNotifyCallback[] callbacks = getCallbacks(serviceUUID, characteristicUUID);
+        BluetoothNotifyCallback[] updated = removeCallback(callbacks, callback);
+        if (updated != callbacks) {
+            publish(serviceUUID, characteristicUUID, updated);
+        }
+    }
+
+    /**
+     * 取消回调的所有订阅
+     *
+     * @param callback 回调
+     */
+    synchronized void unsubscribeAll(BluetoothNotifyCallback callback) {
+        Map<UUID, Map<UUID, BluetoothNotifyCallback[]>> updatedIndex = new HashMap<>();
+        for (Map.Entry<UUID, Map<UUID, BluetoothNotifyCallback[]>> serviceEntry : index.entrySet()) {
+            Map<UUID, BluetoothNotifyCallback[]> characteristics = new HashMap<>();
+            for (Map.Entry<UUID, BluetoothNotifyCallback[]> entry : serviceEntry.getValue().entrySet()) {
+                BluetoothNotifyCallback[] updated = removeCallback(entry.getValue(), callback);
+                if (updated.length > 0) {
+                    characteristics.put(entry.getKey(), updated);
+                }
+            }
+            if (!characteristics.isEmpty()) {
+                updatedIndex.put(serviceEntry.getKey(), characteristics);
+            }
+        }
+        index = updatedIndex;
+    }
+
+    synchronized void clear() {
+        index = Collections.emptyMap();
+    }
+
+    /**
+     * 获取订阅了指定特征的回调, 返回的数组不会再被修改, 不要修改返回的数组
+     *
+     * @param serviceUUID        服务id
+     * @param characteristicUUID 特征id
+     * @return 没有订阅时返回空数组
+     */
+    BluetoothNotifyCallback[] getCallbacks(UUID serviceUUID, UUID characteristicUUID) {
+        Map<UUID, BluetoothNotifyCallback[]> characteristics = index.get(serviceUUID);
+        if (null == characteristics) {
+            return EMPTY_CALLBACKS;
+        }
+        BluetoothNotifyCallback[] callbacks = characteristics.get(characteristicUUID);
+        return null == callbacks ? EMPTY_CALLBACKS : callbacks;
+    }
+
+    /**
+     * 复制索引并替换指定特征的回调, 需要在synchronized中调用
+     */
+    private void publish(UUID serviceUUID, UUID characteristicUUID, BluetoothNotifyCallback[] callbacks) {
+        Map<UUID, Map<UUID, BluetoothNotifyCallback[]>> updatedIndex = new HashMap<>(index);
+        Map<UUID, BluetoothNotifyCallback[]> characteristics = updatedIndex.get(serviceUUID);
+        characteristics = null == characteristics ? new HashMap<UUID, BluetoothNotifyCallback[]>()
+                : new HashMap<>(characteristics);
+        if (callbacks.length == 0) {
+            characteristics.remove(characteristicUUID);
+        } else {
+            characteristics.put(characteristicUUID, callbacks);
+        }
+        if (characteristics.isEmpty()) {
+            updatedIndex.remove(serviceUUID);
+        } else {
+            updatedIndex.put(serviceUUID, characteristics);
+        }
+        index = updatedIndex;
+    }
+
+    /**
+     * @return 不包含回调时返回原数组
+     */
+    private BluetoothNotifyCallback[] removeCallback(BluetoothNotifyCallback[] callbacks,
+                                                     BluetoothNotifyCallback callback) {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] == callback) {
+                BluetoothNotifyCallback[] updated = Arrays.copyOf(callbacks, callbacks.length - 1);
+                System.arraycopy(callbacks, i + 1, updated, i, callbacks.length - i - 1);
+                return updated;
+            }
+        }
+        return callbacks;
+    }
+}
@@ -0,0 +1,164 @@
+package com.cxj.bluetoothlib.frame;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/10
+ * @description 固定容量的字节环形缓冲区, 用于拼接跨多个通知的数据帧
+ * 通知数据写入时复制一次, 取出完整帧时复制一次, 中间不会因扩容产生额外复制
+ * 不是线程安全的, 只在蓝牙回调线程中使用
+ */
+public class ByteRingBuffer {
+    private final byte[] buffer;
+    // 第一个未读字节的位置
+    private int head;
+    // 未读字节数
+    private int size;
+
+    public ByteRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        buffer = new byte[capacity];
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * 未读字节数
+     *
+     * @return
+     */
+    public int available() {
+        return size;
+    }
+
+    /**
+     * 剩余可写入的字节数
+     *
+     * @return
+     */
+    public int remaining() {
+        return buffer.length - size;
+    }
+
+    /**
+     * 写入数据
+     *
+     * @param src 数据
+     * @return 剩余空间不足时不写入并返回false
+     */
+    public boolean write(byte[] src) {
+        if (null == src || src.length == 0) {
+            return true;
+        }
+        if (src.length > remaining()) {
+            return false;
+        }
+        int tail = index(size);
+        int firstPart = Math.min(src.length, buffer.length - tail);
+        System.arraycopy(src, 0, buffer, tail, firstPart);
+        if (firstPart < src.length) {
+            System.arraycopy(src, firstPart, buffer, 0, src.length - firstPart);
+        }
+        size += src.length;
+        return true;
+    }
+
+    /**
+     * 获取未读数据中指定位置的字节, 不移动读位置
+     *
+     * @param index 相对于第一个未读字节的位置
+     * @return
+     */
+    public byte get(int index) {
+        checkIndex(index, 1);
+        return buffer[index(index)];
+    }
+
+    public int getUnsignedByte(int index) {
+        return get(index) & 0xFF;
+    }
+
+    /**
+     * 查找字节序列在未读数据中的位置
+     *
+     * @param pattern   字节序列
+     * @param fromIndex 开始查找的位置
+     * @return 相对于第一个未读字节的位置, 找不到时返回-1
+     */
+    public int indexOf(byte[] pattern, int fromIndex) {
+        int last = size - pattern.length;
+        for (int i = Math.max(0, fromIndex); i <= last; i++) {
+            int j = 0;
+            while (j < pattern.length && buffer[index(i + j)] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取指定长度的数据并移动读位置
+     *
+     * @param length 长度
+     * @return
+     */
+    public byte[] read(int length) {
+        byte[] dst = new byte[length];
+        read(dst, 0, length);
+        return dst;
+    }
+
+    /**
+     * 读取数据到指定数组并移动读位置
+     *
+     * @param dst       目标数组
+     * @param dstOffset 目标数组的起始位置
+     * @param length    长度
+     */
+    public void read(byte[] dst, int dstOffset, int length) {
+        checkIndex(0, length);
+        int firstPart = Math.min(length, buffer.length - head);
+        System.arraycopy(buffer, head, dst, dstOffset, firstPart);
+        if (firstPart < length) {
+            System.arraycopy(buffer, 0, dst, dstOffset + firstPart, length - firstPart);
+        }
+        skip(length);
+    }
+
+    /**
+     * 丢弃指定长度的数据
+     *
+     * @param length 长度
+     */
+    public void skip(int length) {
+        checkIndex(0, length);
+        head = index(length);
+        size -= length;
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int index(int offset) {
+        int index = head + offset;
+        return index >= buffer.length ? index - buffer.length : index;
+    }
+
+    private void checkIndex(int index, int length) {
+        if (index < 0 || length < 0 || index + length > size) {
+            throw new IndexOutOfBoundsException("index:" + index + ", length:" + length
+                    + ", available:" + size);
+        }
+    }
+}
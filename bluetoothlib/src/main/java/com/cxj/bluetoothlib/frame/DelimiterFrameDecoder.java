@@ -0,0 +1,57 @@
+package com.cxj.bluetoothlib.frame;
+
+import android.util.Log;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/10
+ * @description 以分隔符结尾的数据帧解码器
+ */
+public class DelimiterFrameDecoder implements FrameDecoder {
+    private static final String TAG = "DelimiterFrameDecoder";
+
+    private final byte[] delimiter;
+    private final boolean isStripDelimiter;
+    private final int maxFrameLength;
+
+    /**
+     * @param delimiter        分隔符
+     * @param isStripDelimiter 返回的数据帧是否去掉分隔符
+     * @param maxFrameLength   数据帧最大长度(不含分隔符), 超过后丢弃数据直到下一个分隔符
+     */
+    public DelimiterFrameDecoder(byte[] delimiter, boolean isStripDelimiter, int maxFrameLength) {
+        if (null == delimiter || delimiter.length == 0) {
+            throw new IllegalArgumentException("Delimiter is empty.");
+        }
+        this.delimiter = delimiter.clone();
+        this.isStripDelimiter = isStripDelimiter;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public byte[] decode(ByteRingBuffer buffer) {
+        while (true) {
+            int index = buffer.indexOf(delimiter, 0);
+            if (index < 0) {
+                // 超长且没有分隔符, 保留可能是分隔符开头的部分, 其余丢弃
+                int discardLength = buffer.available() - (delimiter.length - 1);
+                if (buffer.available() > maxFrameLength && discardLength > 0) {
+                    Log.e(TAG, "Frame is too long, discard " + discardLength + " bytes.");
+                    buffer.skip(discardLength);
+                }
+                return null;
+            }
+            if (index > maxFrameLength) {
+                Log.e(TAG, "Frame is too long, discard " + (index + delimiter.length) + " bytes.");
+                buffer.skip(index + delimiter.length);
+                continue;
+            }
+            if (isStripDelimiter) {
+                byte[] frame = buffer.read(index);
+                buffer.skip(delimiter.length);
+                return frame;
+            }
+            return buffer.read(index + delimiter.length);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.cxj.bluetoothlib.frame;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/10
+ * @description 固定长度的数据帧解码器
+ */
+public class FixedLengthFrameDecoder implements FrameDecoder {
+    private final int frameLength;
+
+    public FixedLengthFrameDecoder(int frameLength) {
+        if (frameLength <= 0) {
+            throw new IllegalArgumentException("Frame length must be positive.");
+        }
+        this.frameLength = frameLength;
+    }
+
+    @Override
+    public byte[] decode(ByteRingBuffer buffer) {
+        if (buffer.available() < frameLength) {
+            return null;
+        }
+        return buffer.read(frameLength);
+    }
+}
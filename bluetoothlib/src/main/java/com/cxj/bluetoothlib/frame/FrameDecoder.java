@@ -0,0 +1,21 @@
+package com.cxj.bluetoothlib.frame;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/10
+ * @description 数据帧解码器, 从通知数据缓冲区中取出完整的数据帧
+ * 一个数据帧可能分多个通知发送, 也可能一个通知包含多个数据帧
+ * 解码器不保存状态, 每次都从缓冲区的未读数据开始解析, 可以在多个设备间共用
+ * 可以使用LengthFieldFrameDecoder、DelimiterFrameDecoder、FixedLengthFrameDecoder, 或自定义实现
+ */
+public interface FrameDecoder {
+    /**
+     * 取出一个完整的数据帧
+     * 数据不足时不移动读位置并返回null, 等待后续通知
+     * 遇到无法解析的数据时可以通过ByteRingBuffer.skip丢弃后继续解析
+     *
+     * @param buffer 通知数据缓冲区
+     * @return 完整的数据帧, 数据不足时返回null
+     */
+    byte[] decode(ByteRingBuffer buffer);
+}
@@ -0,0 +1,82 @@
+package com.cxj.bluetoothlib.frame;
+
+import android.util.Log;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/10
+ * @description 帧头包含长度字段的数据帧解码器
+ * 数据帧总长度 = lengthFieldOffset + lengthFieldLength + 长度字段的值 + lengthAdjustment
+ * 例如长度字段的值包含帧头长度时, lengthAdjustment为帧头长度的负数
+ */
+public class LengthFieldFrameDecoder implements FrameDecoder {
+    private static final String TAG = "LengthFieldFrameDecoder";
+
+    private final int lengthFieldOffset;
+    private final int lengthFieldLength;
+    private final int lengthAdjustment;
+    private final int initialBytesToStrip;
+    private final boolean isBigEndian;
+    private final int maxFrameLength;
+
+    /**
+     * 长度字段在帧头开始处, 值为后续数据的长度, 大端
+     *
+     * @param lengthFieldLength 长度字段的字节数, 1~4
+     * @param maxFrameLength    数据帧最大长度
+     */
+    public LengthFieldFrameDecoder(int lengthFieldLength, int maxFrameLength) {
+        this(0, lengthFieldLength, 0, 0, true, maxFrameLength);
+    }
+
+    /**
+     * @param lengthFieldOffset   长度字段的位置
+     * @param lengthFieldLength   长度字段的字节数, 1~4
+     * @param lengthAdjustment    数据帧总长度的修正值
+     * @param initialBytesToStrip 返回的数据帧去掉开头的字节数, 如去掉帧头
+     * @param isBigEndian         长度字段是否是大端
+     * @param maxFrameLength      数据帧最大长度, 超过时认为数据错误, 逐字节丢弃直到能解析出正确的帧
+     */
+    public LengthFieldFrameDecoder(int lengthFieldOffset, int lengthFieldLength, int lengthAdjustment,
+                                   int initialBytesToStrip, boolean isBigEndian, int maxFrameLength) {
+        if (lengthFieldLength < 1 || lengthFieldLength > 4) {
+            throw new IllegalArgumentException("Length field length must be 1~4.");
+        }
+        this.lengthFieldOffset = lengthFieldOffset;
+        this.lengthFieldLength = lengthFieldLength;
+        this.lengthAdjustment = lengthAdjustment;
+        this.initialBytesToStrip = initialBytesToStrip;
+        this.isBigEndian = isBigEndian;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public byte[] decode(ByteRingBuffer buffer) {
+        int headerLength = lengthFieldOffset + lengthFieldLength;
+        while (buffer.available() >= headerLength) {
+            long frameLength = headerLength + readLength(buffer) + lengthAdjustment;
+            if (frameLength < Math.max(headerLength, initialBytesToStrip) || frameLength > maxFrameLength) {
+                // 长度错误, 丢弃一个字节重新查找帧头
+                Log.e(TAG, "Invalid frame length:" + frameLength);
+                buffer.skip(1);
+                continue;
+            }
+            if (buffer.available() < frameLength) {
+                return null;
+            }
+            buffer.skip(initialBytesToStrip);
+            return buffer.read((int) frameLength - initialBytesToStrip);
+        }
+        return null;
+    }
+
+    private long readLength(ByteRingBuffer buffer) {
+        long length = 0;
+        for (int i = 0; i < lengthFieldLength; i++) {
+            int index = isBigEndian ? lengthFieldOffset + i
+                    : lengthFieldOffset + lengthFieldLength - 1 - i;
+            length = (length << 8) | buffer.getUnsignedByte(index);
+        }
+        return length;
+    }
+}
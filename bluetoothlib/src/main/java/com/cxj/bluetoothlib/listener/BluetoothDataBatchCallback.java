@@ -0,0 +1,17 @@
+package com.cxj.bluetoothlib.listener;
+
+import com.cxj.bluetoothlib.bean.BluetoothDataBatch;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/12
+ * @description 通知数据批量回调, BluetoothOptions开启批量回调后使用
+ */
+public interface BluetoothDataBatchCallback {
+    /**
+     * 一批通知数据(同一设备、同一特征)
+     *
+     * @param batch
+     */
+    void onDataBatch(BluetoothDataBatch batch);
+}
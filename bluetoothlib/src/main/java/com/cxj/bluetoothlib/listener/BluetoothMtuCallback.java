@@ -0,0 +1,18 @@
+package com.cxj.bluetoothlib.listener;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description 设置MTU回调
+ */
+public interface BluetoothMtuCallback {
+    /**
+     * 设置MTU回调(BluetoothGattCallback.onMtuChanged)
+     * 超时或下发失败时status为BluetoothGatt.GATT_FAILURE, mtu为当前使用的MTU
+     *
+     * @param deviceMac
+     * @param mtu       协商后的MTU
+     * @param status
+     */
+    void onMtuChanged(String deviceMac, int mtu, int status);
+}
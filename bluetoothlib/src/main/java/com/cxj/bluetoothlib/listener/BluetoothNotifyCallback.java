@@ -0,0 +1,17 @@
+package com.cxj.bluetoothlib.listener;
+
+import com.cxj.bluetoothlib.bean.BluetoothDeviceData;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/14
+ * @description 指定特征的通知数据回调, 通过BluetoothLEDevice.subscribe订阅, 只收到订阅特征的数据
+ */
+public interface BluetoothNotifyCallback {
+    /**
+     * 订阅特征的数据回调(BluetoothGattCallback.onCharacteristicChanged)
+     *
+     * @param deviceData
+     */
+    void onDataChanged(BluetoothDeviceData deviceData);
+}
@@ -0,0 +1,20 @@
+package com.cxj.bluetoothlib.listener;
+
+import com.cxj.bluetoothlib.bean.BluetoothDeviceData;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/9
+ * @description 请求-响应匹配器, 判断通知数据(onCharacteristicChanged)是否是某个请求的响应
+ * 一般按协议中的操作码、序号等字段匹配
+ */
+public interface BluetoothResponseMatcher {
+    /**
+     * 是否匹配, 在蓝牙回调线程中调用, 不要执行耗时操作
+     *
+     * @param request  请求数据
+     * @param response 设备通知的数据
+     * @return
+     */
+    boolean isMatch(byte[] request, BluetoothDeviceData response);
+}
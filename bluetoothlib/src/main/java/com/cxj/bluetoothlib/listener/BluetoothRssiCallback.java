@@ -0,0 +1,18 @@
+package com.cxj.bluetoothlib.listener;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/2
+ * @description 读取设备信号强度回调
+ */
+public interface BluetoothRssiCallback {
+    /**
+     * 读RSSI回调(BluetoothGattCallback.onReadRemoteRssi)
+     * 超时或下发失败时status为BluetoothGatt.GATT_FAILURE
+     *
+     * @param deviceMac
+     * @param rssi
+     * @param status
+     */
+    void onRssiRead(String deviceMac, int rssi, int status);
+}
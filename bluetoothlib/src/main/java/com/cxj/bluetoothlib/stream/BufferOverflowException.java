@@ -0,0 +1,14 @@
+package com.cxj.bluetoothlib.stream;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description OverflowStrategy.BUFFER策略下缓冲已满, 订阅被结束
+ */
+public class BufferOverflowException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public BufferOverflowException(String message) {
+        super(message);
+    }
+}
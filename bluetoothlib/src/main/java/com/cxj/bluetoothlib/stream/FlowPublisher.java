@@ -0,0 +1,316 @@
+package com.cxj.bluetoothlib.stream;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 按订阅者请求量(request(n))推送数据的发布者, 每个订阅者一个有界缓冲
+ * 订阅者处理不过来时按OverflowStrategy处理并统计丢弃数量, 内存占用不会随积压无限增长
+ * 数据在emit或request的调用线程中推送, 同一订阅者的回调串行执行
+ */
+public class FlowPublisher<T> implements Publisher<T> {
+    private static final String TAG = "FlowPublisher";
+
+    private final OverflowStrategy overflowStrategy;
+    private final int bufferSize;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final AtomicReference<FlowSubscription<T>[]> subscriptions =
+            new AtomicReference<FlowSubscription<T>[]>(new FlowSubscription[0]);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean isTerminated;
+    private volatile Throwable terminateError;
+
+    /**
+     * @param overflowStrategy 缓冲已满时的处理策略
+     * @param bufferSize       每个订阅者的缓冲条数
+     */
+    public FlowPublisher(OverflowStrategy overflowStrategy, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive.");
+        }
+        this.overflowStrategy = null == overflowStrategy ? OverflowStrategy.BUFFER : overflowStrategy;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (null == subscriber) {
+            throw new NullPointerException("Subscriber is null.");
+        }
+        FlowSubscription<T> subscription = new FlowSubscription<>(this, subscriber);
+        subscriber.onSubscribe(subscription);
+        if (isTerminated) {
+            subscription.terminate(terminateError);
+            return;
+        }
+        if (add(subscription)) {
+            onFirstSubscriber();
+        }
+    }
+
+    /**
+     * 推送数据给所有订阅者
+     *
+     * @param item 数据
+     */
+    public void emit(T item) {
+        for (FlowSubscription<T> subscription : subscriptions.get()) {
+            subscription.offer(item);
+        }
+    }
+
+    /**
+     * 结束所有订阅, 之后的订阅者会立即收到onComplete
+     */
+    public void complete() {
+        terminate(null);
+    }
+
+    /**
+     * 以错误结束所有订阅, 之后的订阅者会立即收到onError
+     *
+     * @param error
+     */
+    public void error(Throwable error) {
+        terminate(error);
+    }
+
+    public boolean hasSubscribers() {
+        return subscriptions.get().length > 0;
+    }
+
+    /**
+     * 所有订阅者累计丢弃的数据条数
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 第一个订阅者订阅时回调, 可用于开始接收数据
+     */
+    protected void onFirstSubscriber() {
+    }
+
+    /**
+     * 最后一个订阅者取消或结束时回调, 可用于停止接收数据
+     */
+    protected void onNoSubscribers() {
+    }
+
+    private void terminate(Throwable error) {
+        if (isTerminated) {
+            return;
+        }
+        terminateError = error;
+        isTerminated = true;
+        for (FlowSubscription<T> subscription : subscriptions.get()) {
+            subscription.terminate(error);
+        }
+    }
+
+    private boolean add(FlowSubscription<T> subscription) {
+        while (true) {
+            FlowSubscription<T>[] current = subscriptions.get();
+            FlowSubscription<T>[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+            if (subscriptions.compareAndSet(current, updated)) {
+                return current.length == 0;
+            }
+        }
+    }
+
+    private void remove(FlowSubscription<T> subscription) {
+        while (true) {
+            FlowSubscription<T>[] current = subscriptions.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            FlowSubscription<T>[] updated = Arrays.copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (subscriptions.compareAndSet(current, updated)) {
+                if (updated.length == 0) {
+                    onNoSubscribers();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 一个订阅者的订阅关系, 通过wip保证同一时间只有一个线程在推送数据
+     */
+    private static class FlowSubscription<T> implements Subscription {
+        private final FlowPublisher<T> publisher;
+        private final Subscriber<? super T> subscriber;
+        // 缓冲, 通过synchronized(this)访问
+        private final ArrayDeque<T> buffer = new ArrayDeque<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong droppedCount = new AtomicLong();
+        private volatile boolean isCancelled;
+        private volatile boolean isDone;
+        private Throwable error;
+        private boolean isTerminalDelivered;
+
+        FlowSubscription(FlowPublisher<T> publisher, Subscriber<? super T> subscriber) {
+            this.publisher = publisher;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                terminate(new IllegalArgumentException("Request count must be positive, n:" + n));
+                return;
+            }
+            while (true) {
+                long current = requested.get();
+                long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                if (requested.compareAndSet(current, updated)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (isCancelled) {
+                return;
+            }
+            isCancelled = true;
+            synchronized (this) {
+                buffer.clear();
+            }
+            publisher.remove(this);
+        }
+
+        @Override
+        public long getDroppedCount() {
+            return droppedCount.get();
+        }
+
+        void offer(T item) {
+            if (isCancelled || isDone) {
+                return;
+            }
+            boolean isOverflow = false;
+            synchronized (this) {
+                if (buffer.size() < publisher.bufferSize) {
+                    buffer.offer(item);
+                } else {
+                    switch (publisher.overflowStrategy) {
+                        case LATEST:
+                            buffer.poll();
+                            buffer.offer(item);
+                            break;
+                        case DROP:
+                            break;
+                        case BUFFER:
+                        default:
+                            isOverflow = true;
+                            break;
+                    }
+                    onDropped();
+                }
+            }
+            if (isOverflow) {
+                Log.e(TAG, "Subscriber buffer overflow, buffer size:" + publisher.bufferSize);
+                terminate(new BufferOverflowException("Subscriber can not keep up, buffer size:"
+                        + publisher.bufferSize));
+                return;
+            }
+            drain();
+        }
+
+        void terminate(Throwable error) {
+            synchronized (this) {
+                if (isDone) {
+                    return;
+                }
+                this.error = error;
+                isDone = true;
+            }
+            drain();
+        }
+
+        private void onDropped() {
+            droppedCount.incrementAndGet();
+            publisher.droppedCount.incrementAndGet();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long count = requested.get();
+                long emitted = 0;
+                while (emitted != count && !isCancelled) {
+                    T item;
+                    synchronized (this) {
+                        item = buffer.poll();
+                    }
+                    if (null == item) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(item);
+                    } catch (Exception e) {
+                        Log.e(TAG, "onNext error:" + e.getMessage(), e);
+                        cancel();
+                        return;
+                    }
+                    emitted++;
+                }
+                if (emitted > 0 && count != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                if (isCancelled) {
+                    return;
+                }
+                if (isDone && !isTerminalDelivered) {
+                    boolean isEmpty;
+                    Throwable terminalError;
+                    synchronized (this) {
+                        isEmpty = buffer.isEmpty();
+                        terminalError = error;
+                    }
+                    // 错误立即结束, 正常结束需要等缓冲中的数据推送完
+                    if (null != terminalError || isEmpty) {
+                        isTerminalDelivered = true;
+                        synchronized (this) {
+                            buffer.clear();
+                        }
+                        publisher.remove(this);
+                        if (null != terminalError) {
+                            subscriber.onError(terminalError);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                        return;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
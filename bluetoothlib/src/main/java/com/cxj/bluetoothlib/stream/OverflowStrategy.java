@@ -0,0 +1,15 @@
+package com.cxj.bluetoothlib.stream;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 订阅者请求的数据不足、缓冲已满时的处理策略
+ */
+public enum OverflowStrategy {
+    // 缓冲满时结束订阅, 通过onError回调BufferOverflowException
+    BUFFER,
+    // 丢弃新数据
+    DROP,
+    // 丢弃缓冲中最早的数据, 保留最新的数据
+    LATEST
+}
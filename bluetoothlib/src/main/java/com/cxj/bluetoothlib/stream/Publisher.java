@@ -0,0 +1,16 @@
+package com.cxj.bluetoothlib.stream;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 数据发布者, 接口与Reactive Streams的Publisher一致, 不依赖第三方库
+ * 需要接入RxJava等库时, 只需简单适配
+ */
+public interface Publisher<T> {
+    /**
+     * 订阅, 订阅者通过onSubscribe收到的Subscription请求数据
+     *
+     * @param subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
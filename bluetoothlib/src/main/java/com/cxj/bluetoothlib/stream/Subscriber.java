@@ -0,0 +1,17 @@
+package com.cxj.bluetoothlib.stream;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 数据订阅者, 接口与Reactive Streams的Subscriber一致
+ * 只有通过Subscription.request(n)请求后才会收到数据, 同一订阅者的回调不会并发执行
+ */
+public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+}
@@ -0,0 +1,27 @@
+package com.cxj.bluetoothlib.stream;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/16
+ * @description 订阅关系, 接口与Reactive Streams的Subscription一致, 另外提供丢弃数量统计
+ */
+public interface Subscription {
+    /**
+     * 请求n条数据, 可以在onNext中调用
+     *
+     * @param n 大于0, Long.MAX_VALUE表示不限制
+     */
+    void request(long n);
+
+    /**
+     * 取消订阅, 缓冲中的数据会被丢弃
+     */
+    void cancel();
+
+    /**
+     * 因订阅者处理不过来(缓冲已满)被丢弃的数据条数
+     *
+     * @return
+     */
+    long getDroppedCount();
+}
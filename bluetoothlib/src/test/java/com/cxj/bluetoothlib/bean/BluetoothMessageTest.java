@@ -0,0 +1,76 @@
+package com.cxj.bluetoothlib.bean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description BluetoothMessage分包和分包缓冲复用测试
+ */
+public class BluetoothMessageTest {
+
+    private static BluetoothMessage write(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return new BluetoothMessage(null, data, BluetoothMessage.MessageType.WRITE);
+    }
+
+    @Test
+    public void singleFragmentWithoutCopy() {
+        BluetoothMessage message = write(4);
+        byte[] buffer = new byte[4];
+        // 不需要拆包时直接返回原数据
+        assertSame(message.getData(), message.nextFragment(4, buffer));
+    }
+
+    @Test
+    public void fullFragmentsReuseBuffer() {
+        BluetoothMessage message = write(7);
+        byte[] buffer = new byte[3];
+        byte[] fragment = message.nextFragment(3, buffer);
+        assertSame(buffer, fragment);
+        assertArrayEquals(new byte[]{0, 1, 2}, fragment);
+        message.advance(fragment.length);
+
+        fragment = message.nextFragment(3, buffer);
+        assertSame(buffer, fragment);
+        assertArrayEquals(new byte[]{3, 4, 5}, fragment);
+        message.advance(fragment.length);
+
+        // 最后一包不足单包长度, 分配刚好长度的数组
+        assertTrue(message.isLastFragment(3));
+        fragment = message.nextFragment(3, buffer);
+        assertNotSame(buffer, fragment);
+        assertArrayEquals(new byte[]{6}, fragment);
+        message.advance(fragment.length);
+        assertFalse(message.hasRemaining());
+        // 原数据不受影响
+        assertEquals(7, message.getData().length);
+        assertEquals(6, message.getData()[6]);
+    }
+
+    @Test
+    public void rollbackResendsSameFragment() {
+        BluetoothMessage message = write(6);
+        byte[] buffer = new byte[3];
+        message.advance(message.nextFragment(3, buffer).length);
+        byte[] fragment = message.nextFragment(3, buffer);
+        message.advance(fragment.length);
+        // 下发失败回退后重新获取同一分包
+        message.rollback(fragment.length);
+        assertEquals(3, message.getOffset());
+        assertArrayEquals(new byte[]{3, 4, 5}, message.nextFragment(3, buffer));
+    }
+
+    @Test
+    public void fragmentWithoutBuffer() {
+        BluetoothMessage message = write(5);
+        assertArrayEquals(new byte[]{0, 1}, message.nextFragment(2));
+        message.advance(2);
+        assertArrayEquals(new byte[]{2, 3}, message.nextFragment(2));
+    }
+}
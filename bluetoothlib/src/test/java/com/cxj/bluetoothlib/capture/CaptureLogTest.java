@@ -0,0 +1,178 @@
+package com.cxj.bluetoothlib.capture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description 抓包日志写入后读取, 分段切换、最大分段数和未写完的记录测试
+ */
+public class CaptureLogTest {
+    private static final String MAC = "AA:BB:CC:DD:EE:0F";
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("0000ffe1-0000-1000-8000-00805f9b34fb");
+    // 每条记录4字节数据
+    private static final int RECORD_SIZE = CaptureLogFormat.RECORD_HEADER_SIZE + 4;
+    // 每个分段刚好放下2条记录
+    private static final int SEGMENT_SIZE = CaptureLogFormat.SEGMENT_HEADER_SIZE + RECORD_SIZE * 2;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("capture").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static byte[] data(int value) {
+        return new byte[]{(byte) value, 1, 2, 3};
+    }
+
+    @Test
+    public void writeThenRead() throws IOException {
+        CaptureLogWriter writer = new CaptureLogWriter(directory);
+        long timestamp = writer.currentTimestamp();
+        assertTrue(writer.append(timestamp, MAC, CHARACTERISTIC_UUID, new byte[]{9, 8, 7, 6}, 1, 2));
+        assertTrue(writer.append(MAC, CHARACTERISTIC_UUID, null));
+        writer.close();
+        assertFalse(writer.append(MAC, CHARACTERISTIC_UUID, data(0)));
+
+        CaptureLogReader reader = new CaptureLogReader(directory);
+        CaptureRecord record = reader.read();
+        assertNotNull(record);
+        assertEquals(timestamp, record.getTimestamp());
+        assertEquals(MAC, record.getDeviceMac());
+        assertEquals(CHARACTERISTIC_UUID, record.getCharacteristicUUID());
+        assertArrayEquals(new byte[]{8, 7}, record.getData());
+        record = reader.read();
+        assertNotNull(record);
+        assertEquals(0, record.getData().length);
+        assertTrue(record.getTimestamp() >= timestamp);
+        assertNull(reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void rolloverAcrossSegments() throws IOException {
+        CaptureLogWriter writer = new CaptureLogWriter(directory, SEGMENT_SIZE, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.append(MAC, CHARACTERISTIC_UUID, data(i)));
+        }
+        writer.close();
+        // 3个分段, 提前创建但未使用的分段已删除
+        assertEquals(3, CaptureLogFormat.listSegments(directory).length);
+
+        CaptureLogReader reader = new CaptureLogReader(directory);
+        for (int i = 0; i < 5; i++) {
+            CaptureRecord record = reader.read();
+            assertNotNull(record);
+            assertArrayEquals(data(i), record.getData());
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void dropRecordLargerThanSegment() throws IOException {
+        CaptureLogWriter writer = new CaptureLogWriter(directory, SEGMENT_SIZE, 0);
+        assertFalse(writer.append(MAC, CHARACTERISTIC_UUID, new byte[SEGMENT_SIZE]));
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(0, writer.getRecordCount());
+        writer.close();
+    }
+
+    @Test
+    public void pruneOldestSegments() throws IOException {
+        CaptureLogWriter writer = new CaptureLogWriter(directory, SEGMENT_SIZE, 3);
+        // 使用分段0~4
+        for (int i = 0; i < 10; i++) {
+            assertTrue(writer.append(MAC, CHARACTERISTIC_UUID, data(i)));
+        }
+        writer.close();
+        File[] segments = CaptureLogFormat.listSegments(directory);
+        assertEquals(3, segments.length);
+        assertEquals(2, CaptureLogFormat.segmentIndex(segments[0]));
+        assertEquals(4, CaptureLogFormat.segmentIndex(segments[2]));
+
+        CaptureLogReader reader = new CaptureLogReader(directory);
+        for (int i = 4; i < 10; i++) {
+            CaptureRecord record = reader.read();
+            assertNotNull(record);
+            assertArrayEquals(data(i), record.getData());
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void newWriterContinuesAfterExistingSegments() throws IOException {
+        CaptureLogWriter writer = new CaptureLogWriter(directory, SEGMENT_SIZE, 2);
+        writer.append(MAC, CHARACTERISTIC_UUID, data(0));
+        writer.close();
+        writer = new CaptureLogWriter(directory, SEGMENT_SIZE, 2);
+        writer.append(MAC, CHARACTERISTIC_UUID, data(1));
+        writer.close();
+        writer = new CaptureLogWriter(directory, SEGMENT_SIZE, 2);
+        writer.append(MAC, CHARACTERISTIC_UUID, data(2));
+        writer.close();
+
+        File[] segments = CaptureLogFormat.listSegments(directory);
+        assertEquals(2, segments.length);
+        CaptureLogReader reader = new CaptureLogReader(directory);
+        assertArrayEquals(data(1), reader.read().getData());
+        assertArrayEquals(data(2), reader.read().getData());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void truncatedRecordEndsSegment() throws IOException {
+        CaptureLogWriter writer = new CaptureLogWriter(directory, SEGMENT_SIZE, 0);
+        for (int i = 0; i < 3; i++) {
+            writer.append(MAC, CHARACTERISTIC_UUID, data(i));
+        }
+        writer.close();
+        // 模拟写第2条记录时进程退出: 记录内容已写入, 长度还没有写入
+        File first = CaptureLogFormat.listSegments(directory)[0];
+        RandomAccessFile file = new RandomAccessFile(first, "rw");
+        try {
+            file.seek(CaptureLogFormat.SEGMENT_HEADER_SIZE + RECORD_SIZE);
+            file.writeInt(0);
+        } finally {
+            file.close();
+        }
+
+        CaptureLogReader reader = new CaptureLogReader(directory);
+        assertArrayEquals(data(0), reader.read().getData());
+        // 第一个分段在未写完的记录处结束, 继续读取下一个分段
+        assertArrayEquals(data(2), reader.read().getData());
+        assertNull(reader.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidSegmentHeader() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(CaptureLogFormat.segmentFile(directory, 0), "rw");
+        try {
+            file.writeLong(0x1234L);
+        } finally {
+            file.close();
+        }
+        new CaptureLogReader(directory).read();
+    }
+}
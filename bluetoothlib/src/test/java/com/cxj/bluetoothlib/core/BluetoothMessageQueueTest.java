@@ -0,0 +1,232 @@
+package com.cxj.bluetoothlib.core;
+
+import com.cxj.bluetoothlib.bean.BluetoothMessage;
+import com.cxj.bluetoothlib.bean.BluetoothOptions;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description BluetoothMessageQueue队列已满时各处理策略和容量统计测试
+ */
+public class BluetoothMessageQueueTest {
+
+    private static BluetoothMessageQueue queueOf(BluetoothOptions.QueueFullPolicy policy,
+                                                 int maxMessages, long maxBytes) {
+        BluetoothOptions options = new BluetoothOptions.Builder()
+                .setServiceUUID("0000ffe0-0000-1000-8000-00805f9b34fb")
+                .setNotifyCharacteristicUUID("0000ffe1-0000-1000-8000-00805f9b34fb")
+                .setWriteCharacteristicUUID("0000ffe1-0000-1000-8000-00805f9b34fb")
+                .setQueueCapacity(maxMessages, maxBytes)
+                .setQueueFullPolicy(policy)
+                .setQueueBlockTimeout(100)
+                .build();
+        return new BluetoothMessageQueue(options);
+    }
+
+    private static BluetoothMessage write(int length) {
+        return new BluetoothMessage(null, new byte[length], BluetoothMessage.MessageType.WRITE);
+    }
+
+    @Test
+    public void rejectNewMessage() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.REJECT, 2, 0);
+        BluetoothMessage first = write(3);
+        assertTrue(queue.add(first).isEmpty());
+        assertTrue(queue.add(write(4)).isEmpty());
+        BluetoothMessage third = write(5);
+        List<BluetoothMessage> dropped = queue.add(third);
+        assertEquals(1, dropped.size());
+        assertSame(third, dropped.get(0));
+        assertEquals(2, queue.size());
+        assertEquals(7, queue.byteSize());
+        assertSame(first, queue.peek());
+    }
+
+    @Test
+    public void dropOldestMessage() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.DROP_OLDEST, 2, 0);
+        BluetoothMessage first = write(3);
+        BluetoothMessage second = write(4);
+        queue.add(first);
+        queue.add(second);
+        BluetoothMessage third = write(5);
+        List<BluetoothMessage> dropped = queue.add(third);
+        assertEquals(1, dropped.size());
+        assertSame(first, dropped.get(0));
+        assertTrue(first.isDropped());
+        assertEquals(2, queue.size());
+        assertEquals(9, queue.byteSize());
+        // 被丢弃的消息在peek时移除
+        assertSame(second, queue.peek());
+        queue.commit(true);
+        assertSame(third, queue.peek());
+        queue.commit(true);
+        assertNull(queue.peek());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.byteSize());
+    }
+
+    @Test
+    public void dropNewestQueuedMessage() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.DROP_NEWEST, 2, 0);
+        BluetoothMessage first = write(3);
+        BluetoothMessage second = write(4);
+        queue.add(first);
+        queue.add(second);
+        BluetoothMessage third = write(5);
+        List<BluetoothMessage> dropped = queue.add(third);
+        assertEquals(1, dropped.size());
+        assertSame(second, dropped.get(0));
+        assertTrue(second.isDropped());
+        assertEquals(2, queue.size());
+        assertEquals(8, queue.byteSize());
+        assertSame(first, queue.peek());
+        queue.commit(true);
+        assertSame(third, queue.peek());
+        queue.commit(true);
+        assertNull(queue.peek());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.byteSize());
+    }
+
+    @Test
+    public void dropSkipsSendingMessage() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.DROP_NEWEST, 1, 0);
+        BluetoothMessage first = write(3);
+        queue.add(first);
+        assertSame(first, queue.peek());
+        assertTrue(first.markSending());
+        // 唯一的消息正在发送, 没有可丢弃的消息时丢弃新消息
+        BluetoothMessage second = write(4);
+        List<BluetoothMessage> dropped = queue.add(second);
+        assertEquals(1, dropped.size());
+        assertSame(second, dropped.get(0));
+        assertFalse(first.isDropped());
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.byteSize());
+    }
+
+    @Test
+    public void dropUntilBytesFit() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.DROP_OLDEST, 0, 10);
+        queue.add(write(4));
+        queue.add(write(4));
+        BluetoothMessage last = write(8);
+        // 需要丢弃两条才能放下8字节
+        assertEquals(2, queue.add(last).size());
+        assertEquals(1, queue.size());
+        assertEquals(8, queue.byteSize());
+        assertSame(last, queue.peek());
+    }
+
+    @Test
+    public void controlMessageNotLimited() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.REJECT, 1, 0);
+        queue.add(write(3));
+        assertTrue(queue.add(new BluetoothMessage(100)).isEmpty());
+        assertEquals(1, queue.size());
+        // 控制消息优先发送
+        assertEquals(BluetoothMessage.MessageType.REQUEST_MTU, queue.peek().getMessageType());
+    }
+
+    @Test
+    public void blockUntilTimeout() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.BLOCK, 1, 0);
+        queue.add(write(3));
+        long start = System.currentTimeMillis();
+        BluetoothMessage second = write(4);
+        List<BluetoothMessage> dropped = queue.add(second);
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        assertEquals(1, dropped.size());
+        assertSame(second, dropped.get(0));
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.byteSize());
+    }
+
+    @Test
+    public void blockUntilSpace() throws InterruptedException {
+        final BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.BLOCK, 1, 0);
+        queue.add(write(3));
+        final AtomicReference<List<BluetoothMessage>> result = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(queue.add(write(4)));
+            }
+        });
+        writer.start();
+        Thread.sleep(20);
+        // 发送线程发送完成后唤醒等待的写数据线程
+        queue.peek();
+        queue.commit(true);
+        writer.join(1000);
+        assertNotNull(result.get());
+        assertTrue(result.get().isEmpty());
+        assertEquals(1, queue.size());
+        assertEquals(4, queue.byteSize());
+    }
+
+    @Test
+    public void clearResetsCapacity() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.REJECT, 2, 0);
+        queue.add(write(3));
+        queue.add(write(4));
+        queue.clear();
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.byteSize());
+        assertTrue(queue.add(write(5)).isEmpty());
+    }
+
+    @Test
+    public void clearWhileSending() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.REJECT, 0, 0);
+        BluetoothMessage sending = write(3);
+        BluetoothMessage queued = write(4);
+        queue.add(sending);
+        queue.add(queued);
+        assertSame(sending, queue.peek());
+        assertTrue(sending.markSending());
+        // 其他线程清空时发送线程已选中消息
+        queue.clear();
+        assertTrue(sending.isFailed());
+        assertTrue(queued.isDropped());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.byteSize());
+        assertTrue(queue.getMessages().isEmpty());
+        // 发送线程完成时不重复扣除
+        queue.commit(true);
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.byteSize());
+        assertNull(queue.peek());
+    }
+
+    @Test
+    public void failSendingMessage() {
+        BluetoothMessageQueue queue = queueOf(BluetoothOptions.QueueFullPolicy.REJECT, 0, 0);
+        BluetoothMessage first = write(3);
+        BluetoothMessage second = write(4);
+        queue.add(first);
+        queue.add(second);
+        assertSame(first, queue.peek());
+        first.markSending();
+        // 发送了部分分包
+        queue.commit(false);
+        assertTrue(queue.fail(first));
+        assertFalse(queue.fail(first));
+        assertEquals(1, queue.size());
+        assertEquals(4, queue.byteSize());
+        // 失败的消息在peek时移除
+        assertSame(second, queue.peek());
+        queue.commit(true);
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.byteSize());
+        assertNull(queue.peek());
+    }
+}
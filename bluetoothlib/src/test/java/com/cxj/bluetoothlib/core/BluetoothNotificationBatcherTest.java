@@ -0,0 +1,91 @@
+package com.cxj.bluetoothlib.core;
+
+import com.cxj.bluetoothlib.bean.BluetoothDataBatch;
+import com.cxj.bluetoothlib.bean.BluetoothDeviceData;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description BluetoothNotificationBatcher按条数回调和逐条回调共用批次数据测试
+ */
+public class BluetoothNotificationBatcherTest {
+    private static final String MAC = "AA:BB:CC:DD:EE:0F";
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("0000ffe1-0000-1000-8000-00805f9b34fb");
+
+    private final List<BluetoothDataBatch> batches = new ArrayList<>();
+
+    private BluetoothNotificationBatcher batcherOf(int maxCount) {
+        // 不按时间回调, 不需要调度线程
+        return new BluetoothNotificationBatcher(MAC, maxCount, 0,
+                new BluetoothNotificationBatcher.FlushListener() {
+                    @Override
+                    public void onFlush(BluetoothDataBatch batch) {
+                        batches.add(batch);
+                    }
+                });
+    }
+
+    @Test
+    public void flushWhenFull() {
+        BluetoothNotificationBatcher batcher = batcherOf(2);
+        batcher.add(CHARACTERISTIC_UUID, new byte[]{1, 2}, 10);
+        assertEquals(0, batches.size());
+        batcher.add(CHARACTERISTIC_UUID, new byte[]{3}, 20);
+        assertEquals(1, batches.size());
+        BluetoothDataBatch batch = batches.get(0);
+        assertEquals(2, batch.size());
+        assertEquals(3, batch.getPayloadLength());
+        assertEquals(20, batch.getTimestamp(1));
+        assertArrayEquals(new byte[]{1, 2}, batch.getData(0));
+        assertArrayEquals(new byte[]{3}, batch.getData(1));
+    }
+
+    @Test
+    public void sharedDataBackedByBatch() {
+        BluetoothNotificationBatcher batcher = batcherOf(2);
+        byte[] value = {1, 2, 3};
+        BluetoothDeviceData first = batcher.addAndShare(CHARACTERISTIC_UUID, value, 10);
+        // 调用后修改原数组不影响已添加的数据
+        value[0] = 9;
+        BluetoothDeviceData second = batcher.addAndShare(CHARACTERISTIC_UUID, new byte[]{4, 5}, 20);
+        assertEquals(1, batches.size());
+        BluetoothDataBatch batch = batches.get(0);
+
+        // 只读视图是批次数组中的这一段
+        ByteBuffer readOnly = second.getReadOnlyData();
+        assertTrue(readOnly.isReadOnly());
+        assertEquals(2, readOnly.remaining());
+        assertEquals(batch.getPayload()[batch.getOffset(1)], readOnly.get(0));
+        assertEquals(5, readOnly.get(1));
+
+        assertArrayEquals(new byte[]{1, 2, 3}, first.getData());
+        // 第一次获取时复制, 之后返回同一个数组
+        assertSame(first.getData(), first.getData());
+        assertEquals(MAC, first.getDeviceMac());
+        assertEquals(CHARACTERISTIC_UUID, first.getCharacteristicsUUID());
+    }
+
+    @Test
+    public void sharedDataSurvivesPayloadGrowth() {
+        BluetoothNotificationBatcher batcher = batcherOf(0);
+        List<BluetoothDeviceData> shared = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            shared.add(batcher.addAndShare(CHARACTERISTIC_UUID, new byte[]{(byte) i, (byte) (i + 1)}, i));
+        }
+        batcher.flushAll();
+        assertEquals(1, batches.size());
+        assertEquals(40, batches.get(0).size());
+        for (int i = 0; i < 40; i++) {
+            assertArrayEquals(new byte[]{(byte) i, (byte) (i + 1)}, shared.get(i).getData());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.cxj.bluetoothlib.frame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description ByteRingBuffer读写、回绕和越界测试
+ */
+public class ByteRingBufferTest {
+
+    @Test
+    public void writeAndRead() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+        assertTrue(buffer.write(new byte[]{1, 2, 3}));
+        assertEquals(3, buffer.available());
+        assertEquals(5, buffer.remaining());
+        assertEquals(2, buffer.get(1));
+        assertArrayEquals(new byte[]{1, 2}, buffer.read(2));
+        assertEquals(1, buffer.available());
+        assertArrayEquals(new byte[]{3}, buffer.read(1));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void writeEmptyOrNull() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        assertTrue(buffer.write(null));
+        assertTrue(buffer.write(new byte[0]));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void writeRejectedWhenFull() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        assertTrue(buffer.write(new byte[]{1, 2, 3}));
+        assertFalse(buffer.write(new byte[]{4, 5}));
+        // 写入失败时不修改已有数据
+        assertEquals(3, buffer.available());
+        assertTrue(buffer.write(new byte[]{4}));
+        assertEquals(0, buffer.remaining());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, buffer.read(4));
+    }
+
+    @Test
+    public void wrapAround() {
+        ByteRingBuffer buffer = new ByteRingBuffer(5);
+        buffer.write(new byte[]{1, 2, 3, 4});
+        buffer.skip(3);
+        // 写入跨过数组末尾
+        assertTrue(buffer.write(new byte[]{5, 6, 7, 8}));
+        assertEquals(5, buffer.available());
+        assertEquals(4, buffer.get(0));
+        assertEquals(8, buffer.get(4));
+        // 读取跨过数组末尾
+        byte[] dst = new byte[7];
+        buffer.read(dst, 2, 5);
+        assertArrayEquals(new byte[]{0, 0, 4, 5, 6, 7, 8}, dst);
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void getUnsignedByte() {
+        ByteRingBuffer buffer = new ByteRingBuffer(2);
+        buffer.write(new byte[]{(byte) 0xFE, 0x01});
+        assertEquals(0xFE, buffer.getUnsignedByte(0));
+        assertEquals(1, buffer.getUnsignedByte(1));
+    }
+
+    @Test
+    public void indexOfAcrossWrapAround() {
+        ByteRingBuffer buffer = new ByteRingBuffer(6);
+        buffer.write(new byte[]{0, 0, 0, 0});
+        buffer.skip(3);
+        // 分隔符跨过数组末尾
+        buffer.write(new byte[]{9, '\r', '\n', 1, 2});
+        assertEquals(2, buffer.indexOf(new byte[]{'\r', '\n'}, 0));
+        assertEquals(-1, buffer.indexOf(new byte[]{'\r', '\n'}, 3));
+        assertEquals(-1, buffer.indexOf(new byte[]{2, 3}, 0));
+        // 序列比未读数据长
+        assertEquals(-1, buffer.indexOf(new byte[]{0, 9, '\r', '\n', 1, 2, 3}, 0));
+    }
+
+    @Test
+    public void clear() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        buffer.write(new byte[]{1, 2, 3});
+        buffer.skip(1);
+        buffer.clear();
+        assertEquals(0, buffer.available());
+        assertTrue(buffer.write(new byte[]{4, 5, 6, 7}));
+        assertArrayEquals(new byte[]{4, 5, 6, 7}, buffer.read(4));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readMoreThanAvailable() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        buffer.write(new byte[]{1, 2});
+        buffer.read(3);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfRange() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        buffer.write(new byte[]{1, 2});
+        buffer.get(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacity() {
+        new ByteRingBuffer(0);
+    }
+}
@@ -0,0 +1,111 @@
+package com.cxj.bluetoothlib.frame;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description DelimiterFrameDecoder拆包、粘包、超长数据丢弃测试
+ */
+public class DelimiterFrameDecoderTest {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String decodeString(FrameDecoder decoder, ByteRingBuffer buffer) {
+        byte[] frame = decoder.decode(buffer);
+        return null == frame ? null : new String(frame, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void frameSplitAcrossNotifications() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CRLF, true, 64);
+        ByteRingBuffer buffer = new ByteRingBuffer(64);
+        buffer.write(bytes("ab"));
+        assertNull(decoder.decode(buffer));
+        buffer.write(bytes("c\r"));
+        // 分隔符不完整
+        assertNull(decoder.decode(buffer));
+        assertEquals(4, buffer.available());
+        buffer.write(bytes("\n"));
+        assertEquals("abc", decodeString(decoder, buffer));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void concatenatedFrames() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CRLF, true, 64);
+        ByteRingBuffer buffer = new ByteRingBuffer(64);
+        buffer.write(bytes("a\r\nbc\r\n\r\nd"));
+        assertEquals("a", decodeString(decoder, buffer));
+        assertEquals("bc", decodeString(decoder, buffer));
+        assertEquals("", decodeString(decoder, buffer));
+        assertNull(decoder.decode(buffer));
+        assertEquals(1, buffer.available());
+    }
+
+    @Test
+    public void keepDelimiter() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CRLF, false, 64);
+        ByteRingBuffer buffer = new ByteRingBuffer(64);
+        buffer.write(bytes("ab\r\ncd\r\n"));
+        assertEquals("ab\r\n", decodeString(decoder, buffer));
+        assertEquals("cd\r\n", decodeString(decoder, buffer));
+    }
+
+    @Test
+    public void discardOverlongFrameWithDelimiter() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CRLF, true, 3);
+        ByteRingBuffer buffer = new ByteRingBuffer(64);
+        buffer.write(bytes("abcdef\r\nxyz\r\n"));
+        // 超长帧连同分隔符丢弃, 最大长度的帧可以正常解析
+        assertEquals("xyz", decodeString(decoder, buffer));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void discardOverlongFrameWithoutDelimiter() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CRLF, true, 3);
+        ByteRingBuffer buffer = new ByteRingBuffer(64);
+        buffer.write(bytes("abcde\r"));
+        assertNull(decoder.decode(buffer));
+        // 只保留可能是分隔符开头的部分
+        assertEquals(1, buffer.available());
+        buffer.write(bytes("\nxy\r\n"));
+        // 解码器不保存状态, 被丢弃的超长帧剩余部分(这里为空)作为一帧返回, 之后的帧正常解析
+        assertEquals("", decodeString(decoder, buffer));
+        assertEquals("xy", decodeString(decoder, buffer));
+    }
+
+    @Test
+    public void shortDataWithoutDelimiterIsKept() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CRLF, true, 8);
+        ByteRingBuffer buffer = new ByteRingBuffer(64);
+        buffer.write(bytes("abcdefgh"));
+        // 没有超过最大长度, 等待分隔符
+        assertNull(decoder.decode(buffer));
+        assertEquals(8, buffer.available());
+    }
+
+    @Test
+    public void frameAcrossWrapAround() {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CRLF, true, 8);
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+        buffer.write(bytes("zzzzza"));
+        buffer.skip(5);
+        // 分隔符回绕到数组开头
+        buffer.write(bytes("bc\r\n"));
+        assertEquals("abc", decodeString(decoder, buffer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyDelimiter() {
+        new DelimiterFrameDecoder(new byte[0], true, 8);
+    }
+}
@@ -0,0 +1,50 @@
+package com.cxj.bluetoothlib.frame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description FixedLengthFrameDecoder拆包、粘包测试
+ */
+public class FixedLengthFrameDecoderTest {
+
+    @Test
+    public void frameSplitAcrossNotifications() {
+        FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(3);
+        ByteRingBuffer buffer = new ByteRingBuffer(16);
+        buffer.write(new byte[]{1, 2});
+        assertNull(decoder.decode(buffer));
+        assertEquals(2, buffer.available());
+        buffer.write(new byte[]{3});
+        assertArrayEquals(new byte[]{1, 2, 3}, decoder.decode(buffer));
+    }
+
+    @Test
+    public void concatenatedFrames() {
+        FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(2);
+        ByteRingBuffer buffer = new ByteRingBuffer(16);
+        buffer.write(new byte[]{1, 2, 3, 4, 5});
+        assertArrayEquals(new byte[]{1, 2}, decoder.decode(buffer));
+        assertArrayEquals(new byte[]{3, 4}, decoder.decode(buffer));
+        assertNull(decoder.decode(buffer));
+        assertEquals(1, buffer.available());
+    }
+
+    @Test
+    public void frameAcrossWrapAround() {
+        FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(4);
+        ByteRingBuffer buffer = new ByteRingBuffer(5);
+        buffer.write(new byte[]{0, 0, 0, 1});
+        buffer.skip(3);
+        buffer.write(new byte[]{2, 3, 4});
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, decoder.decode(buffer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFrameLength() {
+        new FixedLengthFrameDecoder(0);
+    }
+}
@@ -0,0 +1,141 @@
+package com.cxj.bluetoothlib.frame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description LengthFieldFrameDecoder拆包、粘包、错误数据重新同步测试
+ */
+public class LengthFieldFrameDecoderTest {
+
+    private static ByteRingBuffer bufferOf(int capacity, int... data) {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        return bufferOf(capacity, bytes);
+    }
+
+    private static ByteRingBuffer bufferOf(int capacity, byte[] data) {
+        ByteRingBuffer buffer = new ByteRingBuffer(capacity);
+        assertTrue(buffer.write(data));
+        return buffer;
+    }
+
+    @Test
+    public void singleFrame() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 64);
+        ByteRingBuffer buffer = bufferOf(64, 3, 10, 11, 12);
+        assertArrayEquals(new byte[]{3, 10, 11, 12}, decoder.decode(buffer));
+        assertEquals(0, buffer.available());
+        assertNull(decoder.decode(buffer));
+    }
+
+    @Test
+    public void frameSplitAcrossNotifications() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(2, 64);
+        ByteRingBuffer buffer = bufferOf(64, 0);
+        // 长度字段不完整
+        assertNull(decoder.decode(buffer));
+        buffer.write(new byte[]{3, 10});
+        // 数据不完整, 不移动读位置
+        assertNull(decoder.decode(buffer));
+        assertEquals(3, buffer.available());
+        buffer.write(new byte[]{11, 12});
+        assertArrayEquals(new byte[]{0, 3, 10, 11, 12}, decoder.decode(buffer));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void concatenatedFrames() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 64);
+        ByteRingBuffer buffer = bufferOf(64, 2, 10, 11, 1, 12, 0, 3, 13);
+        assertArrayEquals(new byte[]{2, 10, 11}, decoder.decode(buffer));
+        assertArrayEquals(new byte[]{1, 12}, decoder.decode(buffer));
+        // 长度为0的帧
+        assertArrayEquals(new byte[]{0}, decoder.decode(buffer));
+        assertNull(decoder.decode(buffer));
+        assertEquals(2, buffer.available());
+    }
+
+    @Test
+    public void resyncAfterInvalidLength() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 8);
+        // 0x7F超过最大长度, 逐字节丢弃后解析出后面的帧
+        ByteRingBuffer buffer = bufferOf(64, 0x7F, 0xF0, 2, 10, 11);
+        assertArrayEquals(new byte[]{2, 10, 11}, decoder.decode(buffer));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void corruptDataWithoutValidFrame() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 4);
+        ByteRingBuffer buffer = bufferOf(64, 0x70, 0x71, 0x72);
+        assertNull(decoder.decode(buffer));
+        // 无法解析的字节全部丢弃
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void negativeLengthAdjustmentAndStrip() {
+        // 帧头: 0xAA + 2字节大端长度, 长度包含帧头, 返回时去掉帧头
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 2, -3, 3, true, 64);
+        ByteRingBuffer buffer = bufferOf(64, 0xAA, 0, 5, 10, 11, 0xAA, 0, 3);
+        assertArrayEquals(new byte[]{10, 11}, decoder.decode(buffer));
+        // 只有帧头的帧
+        assertArrayEquals(new byte[0], decoder.decode(buffer));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void negativeLengthAdjustmentShorterThanHeader() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 2, -3, 3, true, 64);
+        // 长度1小于帧头长度, 丢弃后找到下一个帧头
+        ByteRingBuffer buffer = bufferOf(64, 0xAA, 0, 1, 0xAA, 0, 4, 10);
+        byte[] frame = decoder.decode(buffer);
+        assertArrayEquals(new byte[]{10}, frame);
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void littleEndianLengthField() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 2, 0, 2, false, 1024);
+        byte[] data = new byte[258];
+        data[0] = 0;
+        data[1] = 1;
+        data[257] = 9;
+        ByteRingBuffer buffer = bufferOf(1024, data);
+        byte[] frame = decoder.decode(buffer);
+        assertNotNull(frame);
+        assertEquals(256, frame.length);
+        assertEquals(9, frame[255]);
+    }
+
+    @Test
+    public void frameAcrossWrapAround() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 8);
+        ByteRingBuffer buffer = bufferOf(8, 1, 1, 1, 1, 1, 4);
+        buffer.skip(5);
+        // 长度字段在数组末尾, 数据回绕到数组开头
+        buffer.write(new byte[]{10, 11, 12, 13});
+        assertArrayEquals(new byte[]{4, 10, 11, 12, 13}, decoder.decode(buffer));
+    }
+
+    @Test
+    public void maxFrameLengthLargerThanBuffer() {
+        // 帧长度合法但超过缓冲区容量, 解码器一直等待, 由调用方在缓冲区写满时清空
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 100);
+        ByteRingBuffer buffer = bufferOf(4, 10, 11, 12, 13);
+        assertNull(decoder.decode(buffer));
+        assertEquals(4, buffer.available());
+        assertFalse(buffer.write(new byte[]{14}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLengthFieldLength() {
+        new LengthFieldFrameDecoder(5, 64);
+    }
+}
@@ -0,0 +1,219 @@
+package com.cxj.bluetoothlib.stream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author chenxiaojin
+ * @date 2021/6/22
+ * @description FlowPublisher请求量、缓冲溢出策略、丢弃统计和订阅者变化回调测试
+ */
+public class FlowPublisherTest {
+
+    /**
+     * 记录收到的数据和结束事件的订阅者
+     */
+    private static class RecordingSubscriber implements Subscriber<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+        int completeCount;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completeCount++;
+        }
+    }
+
+    /**
+     * 记录订阅者变化回调次数的发布者
+     */
+    private static class CountingPublisher extends FlowPublisher<Integer> {
+        int firstSubscriberCount;
+        int noSubscribersCount;
+
+        CountingPublisher(OverflowStrategy overflowStrategy, int bufferSize) {
+            super(overflowStrategy, bufferSize);
+        }
+
+        @Override
+        protected void onFirstSubscriber() {
+            firstSubscriberCount++;
+        }
+
+        @Override
+        protected void onNoSubscribers() {
+            noSubscribersCount++;
+        }
+    }
+
+    private static void emit(FlowPublisher<Integer> publisher, int from, int to) {
+        for (int i = from; i < to; i++) {
+            publisher.emit(i);
+        }
+    }
+
+    @Test
+    public void requestAccounting() {
+        FlowPublisher<Integer> publisher = new FlowPublisher<>(OverflowStrategy.BUFFER, 8);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        emit(publisher, 0, 5);
+        // 没有请求时只缓冲
+        assertEquals(0, subscriber.items.size());
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.items.size());
+        subscriber.subscription.request(1);
+        assertEquals(3, subscriber.items.size());
+        // 请求量大于缓冲中的数据时, 剩余请求量留给之后的数据
+        subscriber.subscription.request(4);
+        assertEquals(5, subscriber.items.size());
+        emit(publisher, 5, 8);
+        assertEquals(7, subscriber.items.size());
+        assertEquals(Integer.valueOf(6), subscriber.items.get(6));
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void unboundedRequest() {
+        FlowPublisher<Integer> publisher = new FlowPublisher<>(OverflowStrategy.BUFFER, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        // 请求量溢出时按不限制处理
+        subscriber.subscription.request(Long.MAX_VALUE);
+        emit(publisher, 0, 10);
+        assertEquals(10, subscriber.items.size());
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void bufferOverflowEndsSubscription() {
+        CountingPublisher publisher = new CountingPublisher(OverflowStrategy.BUFFER, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        emit(publisher, 0, 3);
+        assertTrue(subscriber.error instanceof BufferOverflowException);
+        assertEquals(0, subscriber.items.size());
+        assertEquals(1, subscriber.subscription.getDroppedCount());
+        assertEquals(1, publisher.getDroppedCount());
+        assertFalse(publisher.hasSubscribers());
+        assertEquals(1, publisher.noSubscribersCount);
+        // 结束后不再收到数据
+        subscriber.subscription.request(10);
+        emit(publisher, 3, 5);
+        assertEquals(0, subscriber.items.size());
+    }
+
+    @Test
+    public void dropNewItems() {
+        FlowPublisher<Integer> publisher = new FlowPublisher<>(OverflowStrategy.DROP, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        emit(publisher, 0, 5);
+        assertEquals(3, subscriber.subscription.getDroppedCount());
+        assertEquals(3, publisher.getDroppedCount());
+        subscriber.subscription.request(10);
+        assertEquals(2, subscriber.items.size());
+        assertEquals(Integer.valueOf(0), subscriber.items.get(0));
+        assertEquals(Integer.valueOf(1), subscriber.items.get(1));
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void keepLatestItems() {
+        FlowPublisher<Integer> publisher = new FlowPublisher<>(OverflowStrategy.LATEST, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        emit(publisher, 0, 5);
+        assertEquals(3, subscriber.subscription.getDroppedCount());
+        subscriber.subscription.request(10);
+        assertEquals(2, subscriber.items.size());
+        assertEquals(Integer.valueOf(3), subscriber.items.get(0));
+        assertEquals(Integer.valueOf(4), subscriber.items.get(1));
+    }
+
+    @Test
+    public void droppedCountPerSubscriber() {
+        FlowPublisher<Integer> publisher = new FlowPublisher<>(OverflowStrategy.DROP, 2);
+        RecordingSubscriber slow = new RecordingSubscriber();
+        RecordingSubscriber fast = new RecordingSubscriber();
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        fast.subscription.request(Long.MAX_VALUE);
+        emit(publisher, 0, 4);
+        assertEquals(4, fast.items.size());
+        assertEquals(0, fast.subscription.getDroppedCount());
+        assertEquals(2, slow.subscription.getDroppedCount());
+        // 发布者统计所有订阅者
+        assertEquals(2, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void completeAfterBufferedItems() {
+        FlowPublisher<Integer> publisher = new FlowPublisher<>(OverflowStrategy.BUFFER, 4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        emit(publisher, 0, 2);
+        publisher.complete();
+        // 缓冲中的数据推送完后才回调onComplete
+        assertEquals(0, subscriber.completeCount);
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.items.size());
+        assertEquals(1, subscriber.completeCount);
+
+        // 结束后订阅立即收到onComplete
+        RecordingSubscriber late = new RecordingSubscriber();
+        publisher.subscribe(late);
+        assertEquals(1, late.completeCount);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void subscriberLifecycleCallbacks() {
+        CountingPublisher publisher = new CountingPublisher(OverflowStrategy.BUFFER, 4);
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertEquals(1, publisher.firstSubscriberCount);
+        first.subscription.cancel();
+        assertEquals(0, publisher.noSubscribersCount);
+        second.subscription.cancel();
+        assertEquals(1, publisher.noSubscribersCount);
+        // 重复取消不重复回调
+        second.subscription.cancel();
+        assertEquals(1, publisher.noSubscribersCount);
+        publisher.subscribe(new RecordingSubscriber());
+        assertEquals(2, publisher.firstSubscriberCount);
+    }
+
+    @Test
+    public void invalidRequestEndsWithError() {
+        FlowPublisher<Integer> publisher = new FlowPublisher<>(OverflowStrategy.BUFFER, 4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertFalse(publisher.hasSubscribers());
+    }
+}